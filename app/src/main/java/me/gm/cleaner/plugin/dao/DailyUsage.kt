@@ -0,0 +1,36 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.dao
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+
+/**
+ * What is left of the records of a package and operation on a day once they expired.
+ * @param day days since the epoch, in UTC.
+ */
+@Entity(primaryKeys = ["day", "package_name", "operation"])
+data class DailyUsage(
+    @ColumnInfo(name = "day") val day: Long,
+    @ColumnInfo(name = "package_name") val packageName: String,
+    @ColumnInfo(name = "operation") @MediaProviderOperation val operation: Int,
+    @ColumnInfo(name = "count") val count: Long,
+) {
+    companion object {
+        const val DAY_MILLIS = 24 * 60 * 60 * 1000L
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.dao
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+
+/**
+ * Operations of a package within an hour, bumped by the record writer for every record
+ * including collapsed repeats. Coarser buckets are summed from these on demand.
+ * @param bucketStart start of the hour in milliseconds since the epoch.
+ * @param interceptedCount operations of which at least one file was intercepted.
+ */
+@Entity(primaryKeys = ["bucket_start", "package_name", "operation"])
+data class HourlyUsage(
+    @ColumnInfo(name = "bucket_start") val bucketStart: Long,
+    @ColumnInfo(name = "package_name") val packageName: String,
+    @ColumnInfo(name = "operation") @MediaProviderOperation val operation: Int,
+    @ColumnInfo(name = "count") val count: Long,
+    @ColumnInfo(name = "intercepted_count") val interceptedCount: Long,
+) {
+    companion object {
+        const val HOUR_MILLIS = 60 * 60 * 1000L
+
+        fun bucketStartOf(timeMillis: Long): Long = timeMillis - timeMillis % HOUR_MILLIS
+    }
+}
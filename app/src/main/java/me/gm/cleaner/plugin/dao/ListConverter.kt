@@ -23,18 +23,33 @@ import java.lang.Character.MAX_RADIX
 import java.math.BigInteger
 
 object ListConverter {
+    private val gson = Gson()
+    private val stringListType = object : TypeToken<List<String>?>() {}.type
+
     @TypeConverter
-    fun fromString(value: String?): List<String>? {
-        val listType = object : TypeToken<List<String>?>() {}.type
-        val list = Gson().fromJson<List<String?>?>(value, listType)
+    fun fromBytes(value: ByteArray): List<String>? {
+        val list = RecordCodec.decodeStrings(value)
         return if (list.isEmpty() || list.any { it == null }) null
-        else list as List<String>?
+        else list as List<String>
     }
 
     @TypeConverter
-    fun listToString(list: List<String>?) = Gson().toJson(list)
+    fun listToBytes(list: List<String?>): ByteArray = RecordCodec.encodeStrings(list)
 
     @TypeConverter
+    fun booleanListFromBytes(value: ByteArray): List<Boolean> = RecordCodec.decodeBooleans(value)
+
+    @TypeConverter
+    fun booleanListToBytes(list: List<Boolean>): ByteArray = RecordCodec.encodeBooleans(list)
+
+    /** Decodes the JSON text stored before database version 4. */
+    fun fromString(value: String?): List<String>? {
+        val list = gson.fromJson<List<String?>?>(value, stringListType)
+        return if (list.isNullOrEmpty() || list.any { it == null }) null
+        else list as List<String>?
+    }
+
+    /** Decodes the base 36 bitset text stored before database version 4. */
     fun booleanListFromString(value: String): List<Boolean> {
         val splitIndex = value.indexOf(':', 1)
         val size = value.substring(0, splitIndex).toInt()
@@ -45,15 +60,4 @@ object ListConverter {
         }
         return list
     }
-
-    @TypeConverter
-    fun booleanListToString(list: List<Boolean>): String {
-        var value = BigInteger("0", MAX_RADIX)
-        list.forEachIndexed { index, b ->
-            if (b) {
-                value = value.setBit(index)
-            }
-        }
-        return "${list.size}:${value.toString(MAX_RADIX)}"
-    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.dao
+
+import android.util.LruCache
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * A path seen in any record, stored once and referenced by id.
+ */
+@Entity(indices = [Index(value = ["path", "mime_type"], unique = true)])
+data class MediaPath(
+    @PrimaryKey(autoGenerate = true) val id: Long,
+    @ColumnInfo(name = "path") val path: String,
+    @ColumnInfo(name = "mime_type") val mimeType: String?,
+)
+
+/**
+ * The position-th path of a record.
+ */
+@Entity(primaryKeys = ["record_id", "position"], indices = [Index(value = ["path_id"])])
+data class MediaProviderRecordPath(
+    @ColumnInfo(name = "record_id") val recordId: Long,
+    @ColumnInfo(name = "position") val position: Int,
+    @ColumnInfo(name = "path_id") val pathId: Long,
+)
+
+/**
+ * Full-text index of [MediaPath.path], kept in sync with it by triggers. Paths are split into
+ * words at every character that is neither a letter nor a digit, so a word and the start of a
+ * word can be looked up, a substring in the middle of a word can't.
+ */
+@Fts4(contentEntity = MediaPath::class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity
+data class MediaPathFts(
+    @ColumnInfo(name = "path") val path: String,
+) {
+    companion object {
+        /**
+         * Turn what the user typed into a MATCH expression looking up paths that contain a word
+         * starting with each of the words typed. Returns null if nothing searchable was typed.
+         */
+        fun matchExpression(query: String): String? {
+            val words = query.split(Regex("[^\\p{L}\\p{N}]+")).filter { it.isNotEmpty() }
+            if (words.isEmpty()) {
+                return null
+            }
+            return words.joinToString(" ") { "\"$it\"*" }
+        }
+    }
+}
+
+data class RecordPathRow(
+    @ColumnInfo(name = "record_id") val recordId: Long,
+    @ColumnInfo(name = "path") val path: String,
+    @ColumnInfo(name = "mime_type") val mimeType: String?,
+)
+
+/**
+ * Resolves paths to [MediaPath] ids, inserting the unknown ones. Recently used ids are kept in
+ * memory, so that the paths every query returns don't cost a lookup each time. Not thread safe,
+ * must be used inside the transaction that uses the ids, and [clear]ed if it is rolled back.
+ */
+class PathInterner(private val dao: MediaProviderRecordDao, maxSize: Int) {
+    private val cache = LruCache<MediaPathKey, Long>(maxSize)
+
+    fun intern(path: String, mimeType: String?): Long {
+        val key = MediaPathKey(path, mimeType)
+        return cache[key] ?: (dao.findPathId(path, mimeType)
+            ?: dao.insertPath(MediaPath(0, path, mimeType))).also { cache.put(key, it) }
+    }
+
+    fun clear() {
+        cache.evictAll()
+    }
+
+    private data class MediaPathKey(val path: String, val mimeType: String?)
+}
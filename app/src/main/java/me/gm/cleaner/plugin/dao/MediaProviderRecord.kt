@@ -16,8 +16,10 @@
 
 package me.gm.cleaner.plugin.dao
 
+import android.content.ContentValues
 import android.content.pm.PackageInfo
-import android.database.Cursor
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
 import androidx.annotation.IntDef
 import androidx.room.*
 import androidx.room.migration.Migration
@@ -26,69 +28,247 @@ import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_DELETE
 import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_INSERT
 import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_QUERY
 
-@Entity
+/**
+ * A usage record as the hookers produce it and the UI shows it. Stored as a
+ * [MediaProviderRecordEntity] plus one [MediaProviderRecordPath] per path.
+ */
 data class MediaProviderRecord(
-    @PrimaryKey(autoGenerate = true) val id: Int,
+    val id: Long,
+    val timeMillis: Long,
+    val packageName: String,
+    val match: Int,
+    @MediaProviderOperation val operation: Int,
+    val data: List<String>,
+    val mimeType: List<String?>,
+    val intercepted: List<Boolean>,
+    val repeatCount: Int = 1,
+    val lastTimeMillis: Long = timeMillis,
+) {
+    var packageInfo: PackageInfo? = null
+
+    var label: String? = null
+}
+
+@Entity(
+    tableName = "MediaProviderRecord",
+    indices = [
+        Index(value = ["operation", "time_millis"]),
+        Index(value = ["package_name", "operation"]),
+        Index(value = ["time_millis"]),
+    ]
+)
+data class MediaProviderRecordEntity(
+    @PrimaryKey(autoGenerate = true) val id: Long,
     @ColumnInfo(name = "time_millis") val timeMillis: Long,
     @ColumnInfo(name = "package_name") val packageName: String,
     @ColumnInfo(name = "match") val match: Int,
     @ColumnInfo(name = "operation") @MediaProviderOperation val operation: Int,
-    @ColumnInfo(name = "data") val data: List<String>,
-    @ColumnInfo(name = "mime_type") val mimeType: List<String>,
     @ColumnInfo(name = "intercepted") val intercepted: List<Boolean>,
+    @ColumnInfo(name = "repeat_count", defaultValue = "1") val repeatCount: Int,
+    @ColumnInfo(name = "last_time_millis", defaultValue = "0") val lastTimeMillis: Long,
 ) {
-    @Ignore
-    var packageInfo: PackageInfo? = null
-
-    @Ignore
-    var label: String? = null
+    fun toRecord(data: List<String>, mimeType: List<String?>) = MediaProviderRecord(
+        id, timeMillis, packageName, match, operation, data, mimeType, intercepted,
+        repeatCount, lastTimeMillis
+    )
 
     companion object {
-        fun convert(cursor: Cursor): List<MediaProviderRecord> {
-            if (cursor.count == 0) {
-                return emptyList()
-            }
-            val timeMillisColumn = cursor.getColumnIndexOrThrow("time_millis")
-            val packageNameColumn = cursor.getColumnIndexOrThrow("package_name")
-            val matchColumn = cursor.getColumnIndexOrThrow("match")
-            val operationColumn = cursor.getColumnIndexOrThrow("operation")
-            val dataColumn = cursor.getColumnIndexOrThrow("data")
-            val mimeTypeColumn = cursor.getColumnIndexOrThrow("mime_type")
-            val interceptedColumn = cursor.getColumnIndexOrThrow("intercepted")
-
-            val records = mutableListOf<MediaProviderRecord>()
-            while (cursor.moveToNext()) {
-                records += MediaProviderRecord(
-                    0,
-                    cursor.getLong(timeMillisColumn),
-                    cursor.getString(packageNameColumn),
-                    cursor.getInt(matchColumn),
-                    cursor.getInt(operationColumn),
-                    ListConverter.fromString(cursor.getString(dataColumn)) ?: continue,
-                    ListConverter.fromString(cursor.getString(mimeTypeColumn)) ?: continue,
-                    ListConverter.booleanListFromString(cursor.getString(interceptedColumn)),
-                )
-            }
-            return records
-        }
+        fun of(record: MediaProviderRecord) = MediaProviderRecordEntity(
+            0, record.timeMillis, record.packageName, record.match, record.operation,
+            record.intercepted, record.repeatCount, record.lastTimeMillis
+        )
     }
 }
 
+/** The columns a record observer filters on. */
+data class RecordKey(
+    @ColumnInfo(name = "id") val id: Long,
+    @ColumnInfo(name = "package_name") val packageName: String,
+    @ColumnInfo(name = "operation") @MediaProviderOperation val operation: Int,
+    @ColumnInfo(name = "time_millis") val timeMillis: Long,
+)
+
+/** Ids bound in one IN list, below the 999 variables older SQLite allows. */
+private const val MAX_BOUND_IDS = 900
+
 @Dao
 interface MediaProviderRecordDao {
-    @Query("SELECT * FROM MediaProviderRecord WHERE time_millis BETWEEN (:start) AND (:end) AND operation IN (:operations) ORDER BY time_millis DESC")
-    fun loadForTimeMillis(
-        start: Long, end: Long, @MediaProviderOperation vararg operations: Int
-    ): Cursor
+    /**
+     * A page of records in [start, end], newest first, that come after the record at
+     * (beforeTimeMillis, beforeId) in that order.
+     */
+    @Query("SELECT * FROM MediaProviderRecord WHERE time_millis BETWEEN (:start) AND (:end) AND operation IN (:operations) AND (time_millis < (:beforeTimeMillis) OR (time_millis = (:beforeTimeMillis) AND id < (:beforeId))) ORDER BY time_millis DESC, id DESC LIMIT (:limit)")
+    fun loadEntitiesPage(
+        start: Long, end: Long, @MediaProviderOperation operations: List<Int>,
+        beforeTimeMillis: Long, beforeId: Long, limit: Int
+    ): List<MediaProviderRecordEntity>
+
+    @Query("SELECT rp.record_id, p.path, p.mime_type FROM MediaProviderRecordPath AS rp INNER JOIN MediaPath AS p ON p.id = rp.path_id WHERE rp.record_id IN (:ids) ORDER BY rp.record_id, rp.position")
+    fun loadPathsOf(ids: List<Long>): List<RecordPathRow>
+
+    fun withPaths(entities: List<MediaProviderRecordEntity>): List<MediaProviderRecord> {
+        val paths = entities.map { it.id }.chunked(MAX_BOUND_IDS)
+            .flatMap { loadPathsOf(it) }
+            .groupBy { it.recordId }
+        return entities.mapNotNull { entity ->
+            val recordPaths = paths[entity.id] ?: return@mapNotNull null
+            entity.toRecord(recordPaths.map { it.path }, recordPaths.map { it.mimeType })
+        }
+    }
+
+    @Transaction
+    fun loadPage(
+        start: Long, end: Long, @MediaProviderOperation operations: List<Int>,
+        beforeTimeMillis: Long, beforeId: Long, limit: Int
+    ): List<MediaProviderRecord> = withPaths(
+        loadEntitiesPage(start, end, operations, beforeTimeMillis, beforeId, limit)
+    )
+
+    @Query("SELECT * FROM MediaProviderRecord WHERE id IN (:ids)")
+    fun loadEntitiesByIds(ids: List<Long>): List<MediaProviderRecordEntity>
+
+    /**
+     * The records of ids that still exist, newest first.
+     */
+    @Transaction
+    fun loadByIds(ids: List<Long>): List<MediaProviderRecord> = withPaths(
+        ids.chunked(MAX_BOUND_IDS)
+            .flatMap { loadEntitiesByIds(it) }
+            .sortedWith(compareByDescending<MediaProviderRecordEntity> { it.timeMillis }
+                .thenByDescending { it.id })
+    )
+
+    /**
+     * The newest limit records in [start, end] inserted after the one with id afterId.
+     */
+    @Query("SELECT id, package_name, operation, time_millis FROM MediaProviderRecord WHERE id > (:afterId) AND time_millis BETWEEN (:start) AND (:end) AND operation IN (:operations) ORDER BY id DESC LIMIT (:limit)")
+    fun loadKeysAfter(
+        afterId: Long, start: Long, end: Long, @MediaProviderOperation operations: List<Int>,
+        limit: Int
+    ): List<RecordKey>
 
-    @Query("SELECT count(*) FROM MediaProviderRecord WHERE package_name IN (:packageNames) AND operation IN (:operation)")
+    /**
+     * Keys of a page of the records in [start, end] that belong to one of packageNames or have a
+     * path matching the [MediaPathFts] expression match, paged like [loadEntitiesPage].
+     */
+    @Query("SELECT id, package_name, operation, time_millis FROM MediaProviderRecord WHERE time_millis BETWEEN (:start) AND (:end) AND operation IN (:operations) AND (time_millis < (:beforeTimeMillis) OR (time_millis = (:beforeTimeMillis) AND id < (:beforeId))) AND (package_name IN (:packageNames) OR id IN (SELECT record_id FROM MediaProviderRecordPath WHERE path_id IN (SELECT rowid FROM MediaPathFts WHERE MediaPathFts MATCH (:match)))) ORDER BY time_millis DESC, id DESC LIMIT (:limit)")
+    fun searchKeys(
+        start: Long, end: Long, @MediaProviderOperation operations: List<Int>, match: String,
+        packageNames: List<String>, beforeTimeMillis: Long, beforeId: Long, limit: Int
+    ): List<RecordKey>
+
+    @Query("SELECT id, package_name, operation, time_millis FROM MediaProviderRecord WHERE time_millis BETWEEN (:start) AND (:end) AND operation IN (:operations) AND (time_millis < (:beforeTimeMillis) OR (time_millis = (:beforeTimeMillis) AND id < (:beforeId))) AND package_name IN (:packageNames) ORDER BY time_millis DESC, id DESC LIMIT (:limit)")
+    fun searchKeysByPackage(
+        start: Long, end: Long, @MediaProviderOperation operations: List<Int>,
+        packageNames: List<String>, beforeTimeMillis: Long, beforeId: Long, limit: Int
+    ): List<RecordKey>
+
+    @Query("SELECT COALESCE(SUM(count), 0) FROM PackageUsage WHERE package_name IN (:packageNames) AND operation IN (:operation)")
     fun packageUsageTimes(@MediaProviderOperation operation: Int, vararg packageNames: String): Int
 
+    @Query("SELECT * FROM PackageUsage")
+    fun loadPackageUsage(): List<PackageUsage>
+
+    @Query("UPDATE PackageUsage SET count = count + 1 WHERE package_name = (:packageName) AND operation = (:operation)")
+    fun bumpPackageUsage(packageName: String, @MediaProviderOperation operation: Int): Int
+
+    @Insert
+    fun insertPackageUsage(usage: PackageUsage)
+
+    fun incrementPackageUsage(packageName: String, @MediaProviderOperation operation: Int) {
+        if (bumpPackageUsage(packageName, operation) == 0) {
+            insertPackageUsage(PackageUsage(packageName, operation, 1))
+        }
+    }
+
+    @Query("UPDATE HourlyUsage SET count = count + 1, intercepted_count = intercepted_count + (:intercepted) WHERE bucket_start = (:bucketStart) AND package_name = (:packageName) AND operation = (:operation)")
+    fun bumpHourlyUsage(
+        bucketStart: Long, packageName: String, @MediaProviderOperation operation: Int,
+        intercepted: Int
+    ): Int
+
+    @Insert
+    fun insertHourlyUsage(usage: HourlyUsage)
+
+    fun incrementHourlyUsage(
+        timeMillis: Long, packageName: String, @MediaProviderOperation operation: Int,
+        isIntercepted: Boolean
+    ) {
+        val bucketStart = HourlyUsage.bucketStartOf(timeMillis)
+        val intercepted = if (isIntercepted) 1 else 0
+        if (bumpHourlyUsage(bucketStart, packageName, operation, intercepted) == 0) {
+            insertHourlyUsage(
+                HourlyUsage(bucketStart, packageName, operation, 1, intercepted.toLong())
+            )
+        }
+    }
+
+    /**
+     * Sum the hourly usage into buckets of bucketMillis starting at origin, up to end.
+     */
+    @Query("SELECT (:origin) + ((bucket_start - (:origin)) / (:bucketMillis)) * (:bucketMillis) AS bucket_start, package_name, operation, SUM(count) AS count, SUM(intercepted_count) AS intercepted_count FROM HourlyUsage WHERE bucket_start >= (:origin) AND bucket_start < (:end) GROUP BY 1, 2, 3 ORDER BY 1")
+    fun loadUsageBuckets(origin: Long, end: Long, bucketMillis: Long): List<HourlyUsage>
+
+    @Query("DELETE FROM HourlyUsage WHERE bucket_start < (:before)")
+    fun deleteHourlyUsageBefore(before: Long): Int
+
+    /** Packages that have any record of the path, served by the index on the path table. */
+    @Query("SELECT DISTINCT r.package_name FROM MediaPath AS p INNER JOIN MediaProviderRecordPath AS rp ON rp.path_id = p.id INNER JOIN MediaProviderRecord AS r ON r.id = rp.record_id WHERE p.path = (:path)")
+    fun packagesForPath(path: String): List<String>
+
+    @Insert
+    fun insert(record: MediaProviderRecordEntity): Long
+
+    @Insert
+    fun insertPaths(paths: List<MediaProviderRecordPath>)
+
+    /** Matches with IS, a path may have no MIME type and NULL = NULL is never true. */
+    @Query("SELECT id FROM MediaPath WHERE path = (:path) AND mime_type IS (:mimeType)")
+    fun findPathId(path: String, mimeType: String?): Long?
+
+    @Insert
+    fun insertPath(path: MediaPath): Long
+
+    @Query("UPDATE MediaProviderRecord SET repeat_count = (:repeatCount), last_time_millis = (:lastTimeMillis) WHERE id = (:id)")
+    fun updateRepeat(id: Long, repeatCount: Int, lastTimeMillis: Long)
+
+    @Query("SELECT id FROM MediaProviderRecord WHERE time_millis < (:before) ORDER BY time_millis LIMIT (:limit)")
+    fun loadIdsBefore(before: Long, limit: Int): List<Long>
+
+    @Query("SELECT id FROM MediaProviderRecord ORDER BY time_millis LIMIT (:limit)")
+    fun loadOldestIds(limit: Int): List<Long>
+
+    @Query("SELECT (time_millis / ${DailyUsage.DAY_MILLIS}) AS day, package_name, operation, SUM(repeat_count) AS count FROM MediaProviderRecord WHERE id IN (:ids) GROUP BY day, package_name, operation")
+    fun aggregateDailyUsage(ids: List<Long>): List<DailyUsage>
+
+    @Query("UPDATE DailyUsage SET count = count + (:count) WHERE day = (:day) AND package_name = (:packageName) AND operation = (:operation)")
+    fun addDailyUsage(day: Long, packageName: String, operation: Int, count: Long): Int
+
     @Insert
-    fun insert(records: MediaProviderRecord)
+    fun insertDailyUsage(usage: DailyUsage)
+
+    @Query("DELETE FROM MediaProviderRecordPath WHERE record_id IN (:ids)")
+    fun deletePathsOf(ids: List<Long>)
+
+    @Query("DELETE FROM MediaProviderRecord WHERE id IN (:ids)")
+    fun deleteRecords(ids: List<Long>)
 
-    @Delete
-    fun delete(record: MediaProviderRecord)
+    @Query("DELETE FROM MediaPath WHERE id NOT IN (SELECT path_id FROM MediaProviderRecordPath)")
+    fun deleteUnusedPaths(): Int
+
+    /**
+     * Add the records to the [DailyUsage] of their day, then delete them.
+     */
+    @Transaction
+    fun rollUpAndDelete(ids: List<Long>) {
+        aggregateDailyUsage(ids).forEach { usage ->
+            if (addDailyUsage(usage.day, usage.packageName, usage.operation, usage.count) == 0) {
+                insertDailyUsage(usage)
+            }
+        }
+        deletePathsOf(ids)
+        deleteRecords(ids)
+    }
 }
 
 @IntDef(value = [OP_QUERY, OP_INSERT, OP_DELETE])
@@ -101,7 +281,13 @@ annotation class MediaProviderOperation {
     }
 }
 
-@Database(entities = [MediaProviderRecord::class], version = 2, exportSchema = false)
+@Database(
+    entities = [
+        MediaProviderRecordEntity::class, MediaPath::class, MediaProviderRecordPath::class,
+        DailyUsage::class, PackageUsage::class, HourlyUsage::class, MediaPathFts::class,
+    ],
+    version = 11, exportSchema = false
+)
 @TypeConverters(ListConverter::class)
 abstract class MediaProviderRecordDatabase : RoomDatabase() {
     abstract fun mediaProviderRecordDao(): MediaProviderRecordDao
@@ -115,3 +301,163 @@ val MIGRATION_1_2 = object : Migration(1, 2) {
         _db.execSQL("CREATE TABLE IF NOT EXISTS `MediaProviderRecord` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `time_millis` INTEGER NOT NULL, `package_name` TEXT NOT NULL, `match` INTEGER NOT NULL, `operation` INTEGER NOT NULL, `data` TEXT NOT NULL, `mime_type` TEXT NOT NULL, `intercepted` TEXT NOT NULL)")
     }
 }
+
+val MIGRATION_2_3 = object : Migration(2, 3) {
+    override fun migrate(_db: SupportSQLiteDatabase) {
+        _db.execSQL("ALTER TABLE `MediaProviderRecord` ADD COLUMN `repeat_count` INTEGER NOT NULL DEFAULT 1")
+        _db.execSQL("ALTER TABLE `MediaProviderRecord` ADD COLUMN `last_time_millis` INTEGER NOT NULL DEFAULT 0")
+        _db.execSQL("UPDATE `MediaProviderRecord` SET `last_time_millis` = `time_millis`")
+    }
+}
+
+val MIGRATION_3_4 = object : Migration(3, 4) {
+    override fun migrate(_db: SupportSQLiteDatabase) {
+        _db.execSQL("CREATE TABLE IF NOT EXISTS `MediaProviderRecord_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `time_millis` INTEGER NOT NULL, `package_name` TEXT NOT NULL, `match` INTEGER NOT NULL, `operation` INTEGER NOT NULL, `data` BLOB NOT NULL, `mime_type` BLOB NOT NULL, `intercepted` BLOB NOT NULL, `repeat_count` INTEGER NOT NULL DEFAULT 1, `last_time_millis` INTEGER NOT NULL DEFAULT 0)")
+        // The old columns are JSON text that only Kotlin can parse, convert row by row.
+        _db.query("SELECT * FROM `MediaProviderRecord`").use { cursor ->
+            val idColumn = cursor.getColumnIndexOrThrow("id")
+            val dataColumn = cursor.getColumnIndexOrThrow("data")
+            val mimeTypeColumn = cursor.getColumnIndexOrThrow("mime_type")
+            val interceptedColumn = cursor.getColumnIndexOrThrow("intercepted")
+            while (cursor.moveToNext()) {
+                val values = ContentValues()
+                DatabaseUtils.cursorRowToContentValues(cursor, values)
+                values.put(
+                    "data", ListConverter.listToBytes(
+                        ListConverter.fromString(cursor.getString(dataColumn)) ?: continue
+                    )
+                )
+                values.put(
+                    "mime_type", ListConverter.listToBytes(
+                        ListConverter.fromString(cursor.getString(mimeTypeColumn)) ?: continue
+                    )
+                )
+                values.put(
+                    "intercepted", ListConverter.booleanListToBytes(
+                        ListConverter.booleanListFromString(cursor.getString(interceptedColumn))
+                    )
+                )
+                values.put("id", cursor.getLong(idColumn))
+                _db.insert("MediaProviderRecord_new", SQLiteDatabase.CONFLICT_NONE, values)
+            }
+        }
+        _db.execSQL("DROP TABLE `MediaProviderRecord`")
+        _db.execSQL("ALTER TABLE `MediaProviderRecord_new` RENAME TO `MediaProviderRecord`")
+    }
+}
+
+val MIGRATION_4_5 = object : Migration(4, 5) {
+    override fun migrate(_db: SupportSQLiteDatabase) {
+        _db.execSQL("CREATE TABLE IF NOT EXISTS `MediaPath` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `path` TEXT NOT NULL, `mime_type` TEXT)")
+        _db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_MediaPath_path_mime_type` ON `MediaPath` (`path`, `mime_type`)")
+        _db.execSQL("CREATE TABLE IF NOT EXISTS `MediaProviderRecordPath` (`record_id` INTEGER NOT NULL, `position` INTEGER NOT NULL, `path_id` INTEGER NOT NULL, PRIMARY KEY(`record_id`, `position`))")
+        _db.execSQL("CREATE INDEX IF NOT EXISTS `index_MediaProviderRecordPath_path_id` ON `MediaProviderRecordPath` (`path_id`)")
+
+        val insertPath = _db.compileStatement("INSERT INTO `MediaPath` (`path`, `mime_type`) VALUES (?, ?)")
+        val insertRecordPath = _db.compileStatement("INSERT INTO `MediaProviderRecordPath` (`record_id`, `position`, `path_id`) VALUES (?, ?, ?)")
+        val pathIds = HashMap<Pair<String, String>, Long>()
+        _db.query("SELECT `id`, `data`, `mime_type` FROM `MediaProviderRecord`").use { cursor ->
+            while (cursor.moveToNext()) {
+                val recordId = cursor.getLong(0)
+                val data = ListConverter.fromBytes(cursor.getBlob(1)) ?: continue
+                val mimeType = ListConverter.fromBytes(cursor.getBlob(2)) ?: continue
+                data.zip(mimeType).forEachIndexed { position, path ->
+                    val pathId = pathIds.getOrPut(path) {
+                        insertPath.bindString(1, path.first)
+                        insertPath.bindString(2, path.second)
+                        insertPath.executeInsert()
+                    }
+                    insertRecordPath.bindLong(1, recordId)
+                    insertRecordPath.bindLong(2, position.toLong())
+                    insertRecordPath.bindLong(3, pathId)
+                    insertRecordPath.executeInsert()
+                }
+            }
+        }
+
+        _db.execSQL("CREATE TABLE IF NOT EXISTS `MediaProviderRecord_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `time_millis` INTEGER NOT NULL, `package_name` TEXT NOT NULL, `match` INTEGER NOT NULL, `operation` INTEGER NOT NULL, `intercepted` BLOB NOT NULL, `repeat_count` INTEGER NOT NULL DEFAULT 1, `last_time_millis` INTEGER NOT NULL DEFAULT 0)")
+        _db.execSQL("INSERT INTO `MediaProviderRecord_new` SELECT `id`, `time_millis`, `package_name`, `match`, `operation`, `intercepted`, `repeat_count`, `last_time_millis` FROM `MediaProviderRecord` WHERE `id` IN (SELECT DISTINCT `record_id` FROM `MediaProviderRecordPath`)")
+        _db.execSQL("DROP TABLE `MediaProviderRecord`")
+        _db.execSQL("ALTER TABLE `MediaProviderRecord_new` RENAME TO `MediaProviderRecord`")
+    }
+}
+
+val MIGRATION_5_6 = object : Migration(5, 6) {
+    override fun migrate(_db: SupportSQLiteDatabase) {
+        _db.execSQL("CREATE INDEX IF NOT EXISTS `index_MediaProviderRecord_operation_time_millis` ON `MediaProviderRecord` (`operation`, `time_millis`)")
+        // PackageUsage answers the usage counts, but searchKeysByPackage still filters the records
+        // by package and operation.
+        _db.execSQL("CREATE INDEX IF NOT EXISTS `index_MediaProviderRecord_package_name_operation` ON `MediaProviderRecord` (`package_name`, `operation`)")
+    }
+}
+
+val MIGRATION_6_7 = object : Migration(6, 7) {
+    override fun migrate(_db: SupportSQLiteDatabase) {
+        _db.execSQL("CREATE TABLE IF NOT EXISTS `DailyUsage` (`day` INTEGER NOT NULL, `package_name` TEXT NOT NULL, `operation` INTEGER NOT NULL, `count` INTEGER NOT NULL, PRIMARY KEY(`day`, `package_name`, `operation`))")
+    }
+}
+
+val MIGRATION_7_8 = object : Migration(7, 8) {
+    override fun migrate(_db: SupportSQLiteDatabase) {
+        _db.execSQL("CREATE TABLE IF NOT EXISTS `PackageUsage` (`package_name` TEXT NOT NULL, `operation` INTEGER NOT NULL, `count` INTEGER NOT NULL, PRIMARY KEY(`package_name`, `operation`))")
+        _db.execSQL("INSERT INTO `PackageUsage` SELECT `package_name`, `operation`, SUM(`count`) FROM (SELECT `package_name`, `operation`, `repeat_count` AS `count` FROM `MediaProviderRecord` UNION ALL SELECT `package_name`, `operation`, `count` FROM `DailyUsage`) GROUP BY `package_name`, `operation`")
+    }
+}
+
+val MIGRATION_8_9 = object : Migration(8, 9) {
+    override fun migrate(_db: SupportSQLiteDatabase) {
+        _db.execSQL("CREATE TABLE IF NOT EXISTS `HourlyUsage` (`bucket_start` INTEGER NOT NULL, `package_name` TEXT NOT NULL, `operation` INTEGER NOT NULL, `count` INTEGER NOT NULL, `intercepted_count` INTEGER NOT NULL, PRIMARY KEY(`bucket_start`, `package_name`, `operation`))")
+        // Backfill from the records left, the intercepted bitset can only be read in Kotlin.
+        val usage = HashMap<Triple<Long, String, Int>, LongArray>()
+        _db.query("SELECT `time_millis`, `package_name`, `operation`, `intercepted`, `repeat_count` FROM `MediaProviderRecord`").use { cursor ->
+            while (cursor.moveToNext()) {
+                val key = Triple(
+                    HourlyUsage.bucketStartOf(cursor.getLong(0)), cursor.getString(1),
+                    cursor.getInt(2)
+                )
+                val repeatCount = cursor.getLong(4)
+                val counts = usage.getOrPut(key) { LongArray(2) }
+                counts[0] += repeatCount
+                if (ListConverter.booleanListFromBytes(cursor.getBlob(3)).any { it }) {
+                    counts[1] += repeatCount
+                }
+            }
+        }
+        _db.query("SELECT `day`, `package_name`, `operation`, `count` FROM `DailyUsage`").use { cursor ->
+            while (cursor.moveToNext()) {
+                val key = Triple(
+                    cursor.getLong(0) * DailyUsage.DAY_MILLIS, cursor.getString(1),
+                    cursor.getInt(2)
+                )
+                usage.getOrPut(key) { LongArray(2) }[0] += cursor.getLong(3)
+            }
+        }
+        val insert = _db.compileStatement("INSERT INTO `HourlyUsage` (`bucket_start`, `package_name`, `operation`, `count`, `intercepted_count`) VALUES (?, ?, ?, ?, ?)")
+        usage.forEach { (key, counts) ->
+            insert.bindLong(1, key.first)
+            insert.bindString(2, key.second)
+            insert.bindLong(3, key.third.toLong())
+            insert.bindLong(4, counts[0])
+            insert.bindLong(5, counts[1])
+            insert.executeInsert()
+        }
+    }
+}
+
+val MIGRATION_9_10 = object : Migration(9, 10) {
+    override fun migrate(_db: SupportSQLiteDatabase) {
+        // Lets a page walk the records backwards by time and stop at the limit.
+        _db.execSQL("CREATE INDEX IF NOT EXISTS `index_MediaProviderRecord_time_millis` ON `MediaProviderRecord` (`time_millis`)")
+    }
+}
+
+val MIGRATION_10_11 = object : Migration(10, 11) {
+    override fun migrate(_db: SupportSQLiteDatabase) {
+        _db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `MediaPathFts` USING FTS4(`path` TEXT NOT NULL, tokenize=unicode61, content=`MediaPath`)")
+        _db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_MediaPathFts_BEFORE_UPDATE BEFORE UPDATE ON `MediaPath` BEGIN DELETE FROM `MediaPathFts` WHERE `docid`=OLD.`rowid`; END")
+        _db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_MediaPathFts_BEFORE_DELETE BEFORE DELETE ON `MediaPath` BEGIN DELETE FROM `MediaPathFts` WHERE `docid`=OLD.`rowid`; END")
+        _db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_MediaPathFts_AFTER_UPDATE AFTER UPDATE ON `MediaPath` BEGIN INSERT INTO `MediaPathFts`(`docid`, `path`) VALUES (NEW.`rowid`, NEW.`path`); END")
+        _db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_MediaPathFts_AFTER_INSERT AFTER INSERT ON `MediaPath` BEGIN INSERT INTO `MediaPathFts`(`docid`, `path`) VALUES (NEW.`rowid`, NEW.`path`); END")
+        _db.execSQL("INSERT INTO `MediaPathFts`(`MediaPathFts`) VALUES('rebuild')")
+    }
+}
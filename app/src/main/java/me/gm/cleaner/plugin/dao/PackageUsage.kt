@@ -0,0 +1,31 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.dao
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+
+/**
+ * Running total of the operations of a package, bumped with every record written, including
+ * collapsed repeats, and kept when the records themselves expire.
+ */
+@Entity(primaryKeys = ["package_name", "operation"])
+data class PackageUsage(
+    @ColumnInfo(name = "package_name") val packageName: String,
+    @ColumnInfo(name = "operation") @MediaProviderOperation val operation: Int,
+    @ColumnInfo(name = "count") val count: Long,
+)
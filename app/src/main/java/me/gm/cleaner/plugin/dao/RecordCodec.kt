@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.dao
+
+/**
+ * Binary encoding of the list columns of [MediaProviderRecord]. Every blob starts with a version
+ * byte, all integers are unsigned varints.
+ *
+ * String lists: the size, then for each string a tag. Tag 1 is a null. Any other odd tag refers
+ * to the ((tag shr 1) - 1)-th distinct string seen before, which keeps repeated values such as MIME
+ * types to a byte or two. An even tag introduces a new string sharing (tag shr 1) chars with the
+ * previous new string, followed by the byte length and the UTF-8 bytes of the rest, which
+ * front-codes sorted paths.
+ *
+ * Boolean lists: the size, then a bitset, bit i of byte i / 8 is the i-th value.
+ */
+object RecordCodec {
+    private const val VERSION: Byte = 1
+    private const val NULL_TAG = 1
+
+    fun encodeStrings(list: List<String?>): ByteArray {
+        val out = Output(list.size * 16 + 8)
+        out.writeByte(VERSION)
+        out.writeVarint(list.size)
+        val dictionary = HashMap<String, Int>()
+        var previous = ""
+        list.forEach { value ->
+            if (value == null) {
+                out.writeVarint(NULL_TAG)
+                return@forEach
+            }
+            val index = dictionary[value]
+            if (index != null) {
+                out.writeVarint(((index + 1) shl 1) or 1)
+                return@forEach
+            }
+            dictionary[value] = dictionary.size
+            var shared = 0
+            val max = minOf(previous.length, value.length)
+            while (shared < max && previous[shared] == value[shared]) {
+                shared++
+            }
+            // Don't split a surrogate pair, the rest is encoded on its own.
+            if (shared > 0 && Character.isHighSurrogate(value[shared - 1])) {
+                shared--
+            }
+            val suffix = value.substring(shared).toByteArray()
+            out.writeVarint(shared shl 1)
+            out.writeVarint(suffix.size)
+            out.writeBytes(suffix)
+            previous = value
+        }
+        return out.toByteArray()
+    }
+
+    fun decodeStrings(blob: ByteArray): List<String?> {
+        val input = Input(blob)
+        val version = input.readByte()
+        require(version == VERSION) { "Unknown encoding version $version" }
+        val size = input.readVarint()
+        val list = ArrayList<String?>(size)
+        val dictionary = ArrayList<String>()
+        var previous = ""
+        repeat(size) {
+            val tag = input.readVarint()
+            if (tag == NULL_TAG) {
+                list += null
+            } else if ((tag and 1) != 0) {
+                list += dictionary[(tag ushr 1) - 1]
+            } else {
+                val shared = tag ushr 1
+                val value = previous.substring(0, shared) + input.readString(input.readVarint())
+                dictionary += value
+                list += value
+                previous = value
+            }
+        }
+        return list
+    }
+
+    fun encodeBooleans(list: List<Boolean>): ByteArray {
+        val out = Output((list.size + 7) / 8 + 6)
+        out.writeByte(VERSION)
+        out.writeVarint(list.size)
+        val bits = ByteArray((list.size + 7) / 8)
+        list.forEachIndexed { i, value ->
+            if (value) {
+                bits[i ushr 3] = (bits[i ushr 3].toInt() or (1 shl (i and 7))).toByte()
+            }
+        }
+        out.writeBytes(bits)
+        return out.toByteArray()
+    }
+
+    fun decodeBooleans(blob: ByteArray): List<Boolean> {
+        val input = Input(blob)
+        val version = input.readByte()
+        require(version == VERSION) { "Unknown encoding version $version" }
+        val size = input.readVarint()
+        val offset = input.position
+        return List(size) { i -> (blob[offset + (i ushr 3)].toInt() and (1 shl (i and 7))) != 0 }
+    }
+
+    private class Output(initialCapacity: Int) {
+        private var buffer = ByteArray(initialCapacity)
+        private var size = 0
+
+        private fun ensureCapacity(extra: Int) {
+            if (size + extra > buffer.size) {
+                buffer = buffer.copyOf(maxOf(buffer.size * 2, size + extra))
+            }
+        }
+
+        fun writeByte(value: Byte) {
+            ensureCapacity(1)
+            buffer[size++] = value
+        }
+
+        fun writeVarint(value: Int) {
+            ensureCapacity(5)
+            var v = value
+            while ((v and 0x7F.inv()) != 0) {
+                buffer[size++] = ((v and 0x7F) or 0x80).toByte()
+                v = v ushr 7
+            }
+            buffer[size++] = v.toByte()
+        }
+
+        fun writeBytes(bytes: ByteArray) {
+            ensureCapacity(bytes.size)
+            System.arraycopy(bytes, 0, buffer, size, bytes.size)
+            size += bytes.size
+        }
+
+        fun toByteArray(): ByteArray = buffer.copyOf(size)
+    }
+
+    private class Input(private val buffer: ByteArray) {
+        var position = 0
+            private set
+
+        fun readByte(): Byte = buffer[position++]
+
+        fun readVarint(): Int {
+            var result = 0
+            var shift = 0
+            while (true) {
+                val b = buffer[position++].toInt()
+                result = result or ((b and 0x7F) shl shift)
+                if ((b and 0x80) == 0) {
+                    return result
+                }
+                shift += 7
+            }
+        }
+
+        fun readString(length: Int): String {
+            val value = String(buffer, position, length, Charsets.UTF_8)
+            position += length
+            return value
+        }
+    }
+}
@@ -19,7 +19,7 @@ package me.gm.cleaner.plugin.di;
 
 import android.content.Context;
 import android.content.pm.PackageInfo;
-import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 
 import androidx.annotation.NonNull;
@@ -30,9 +30,9 @@ import com.bumptech.glide.annotation.GlideModule;
 
 import java.nio.ByteBuffer;
 
-import me.gm.cleaner.plugin.R;
+import me.gm.cleaner.plugin.model.PackageSummary;
 import me.gm.cleaner.plugin.ui.mediastore.MediaModelLoader;
-import me.zhanghai.android.appiconloader.glide.AppIconModelLoader;
+import me.gm.cleaner.plugin.ui.module.AppIconModelLoader;
 
 @GlideModule
 public class AppGlideModule extends com.bumptech.glide.module.AppGlideModule {
@@ -44,9 +44,10 @@ public class AppGlideModule extends com.bumptech.glide.module.AppGlideModule {
     @Override
     public void registerComponents(@NonNull Context context, @NonNull Glide glide,
                                    @NonNull Registry registry) {
-        int iconSize = context.getResources().getDimensionPixelSize(R.dimen.badge_size);
-        registry.prepend(PackageInfo.class, Bitmap.class, new AppIconModelLoader.Factory(iconSize,
-                false, context))
+        registry.prepend(PackageInfo.class, Drawable.class,
+                        AppIconModelLoader.Factory.forPackageInfo(context))
+                .prepend(PackageSummary.class, Drawable.class,
+                        AppIconModelLoader.Factory.forPackageSummary(context))
                 .prepend(Uri.class, ByteBuffer.class, new MediaModelLoader.Factory(context));
     }
 }
@@ -16,6 +16,7 @@
 
 package me.gm.cleaner.plugin.model;
 
+import android.os.BadParcelableException;
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.Parcel;
@@ -26,6 +27,12 @@ import android.util.Log;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Transfer a large list of Parcelable objects across an IPC.  Splits into
@@ -36,10 +43,40 @@ import java.util.List;
  * each object is the same type, or else unparceling then reparceling the data may yield
  * a different result if the class name encoded in the Parcelable is a Base type.
  * See b/17671747.
+ * <p>
+ * Chunks after the inline part are sized from the average size of the inline elements, between
+ * {@link #MAX_IPC_SIZE} and {@link #MAX_CHUNK_SIZE}, and halved if a transaction fails, which
+ * is how a reply too large for the binder buffer shows up on this side. Each chunk tells where
+ * the next one starts, so the next chunk is fetched while the current one is unparceled, unless
+ * the rest is expected to fit in one chunk. A retriever that doesn't know
+ * {@link #FETCH_CHUNK_TRANSACTION} is read one chunk at a time as before.
+ * <p>
+ * A list that can't be received completely throws {@link BadParcelableException} rather than
+ * coming back truncated.
  */
 abstract class BaseParceledListSlice<T> implements Parcelable {
     private static String TAG = "ParceledListSlice";
     private static final int MAX_IPC_SIZE = 64 * 1024;
+    /**
+     * Replies live in the 1 MB binder buffer of this process until they are recycled. Each list
+     * holds at most the chunk it reads and the one it prefetches, and only two prefetches run at
+     * once, so a few lists loading together stay well under the buffer.
+     */
+    private static final int MAX_CHUNK_SIZE = 128 * 1024;
+    /** Takes the start index and the size in bytes, replies the end index then the elements. */
+    private static final int FETCH_CHUNK_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION + 1;
+    /** One chunk is prefetched per list, two threads let two lists load at once. */
+    private static final ThreadPoolExecutor sPrefetchExecutor = new ThreadPoolExecutor(
+            2, 2, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "ParceledListSlicePrefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        sPrefetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private final List<T> mList;
     private int mInlineCountLimit = Integer.MAX_VALUE;
 
@@ -60,6 +97,7 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
         }
         Creator<?> creator = readParcelableCreator(p, loader);
         Class<?> listElementClass = null;
+        final int inlineStart = p.dataPosition();
         int i = 0;
         while (i < N) {
             if (p.readInt() == 0) {
@@ -78,6 +116,141 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
             return;
         }
         final IBinder retriever = p.readStrongBinder();
+        final int averageSize = i > 0 ? (p.dataPosition() - inlineStart) / i : MAX_IPC_SIZE;
+        int chunkSize = (int) Math.min(MAX_CHUNK_SIZE,
+                Math.max(MAX_IPC_SIZE, (long) averageSize * (N - i) / 2));
+        ChunkFetch pending = fetchChunk(retriever, i, chunkSize, (long) averageSize * (N - i));
+        try {
+            while (i < N) {
+                final Parcel reply;
+                try {
+                    reply = pending.get();
+                } catch (ExecutionException e) {
+                    // A reply over the free binder buffer fails the transaction, which reaches
+                    // us as a DeadObjectException or a plain RemoteException.
+                    if (e.getCause() instanceof RemoteException && chunkSize > MAX_IPC_SIZE) {
+                        chunkSize = Math.max(MAX_IPC_SIZE, chunkSize / 2);
+                        Log.w(TAG, "Retrying chunk at " + i + " of " + N + " with " + chunkSize
+                                + " bytes", e.getCause());
+                        pending = fetchChunk(retriever, i, chunkSize, (long) averageSize * (N - i));
+                        continue;
+                    }
+                    throw receiveFailure(i, N, e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw receiveFailure(i, N, e);
+                }
+                pending = null;
+                if (reply == null) {
+                    // An older retriever, fetch the rest one chunk at a time.
+                    readChunksSerially(retriever, creator, listElementClass, i, N, loader);
+                    return;
+                }
+                try {
+                    final int end = reply.readInt();
+                    if (end <= i || end > N) {
+                        throw receiveFailure(i, N, new IllegalStateException(
+                                "Bad chunk end " + end));
+                    }
+                    if (end < N) {
+                        pending = fetchChunk(retriever, end, chunkSize,
+                                (long) averageSize * (N - end));
+                    }
+                    while (i < end) {
+                        final T parcelable = readCreator(creator, reply, loader);
+                        if (listElementClass == null) {
+                            listElementClass = parcelable.getClass();
+                        } else {
+                            verifySameType(listElementClass, parcelable.getClass());
+                        }
+                        mList.add(parcelable);
+                        i++;
+                    }
+                } finally {
+                    reply.recycle();
+                }
+            }
+        } finally {
+            if (pending != null) {
+                pending.discard();
+            }
+        }
+    }
+
+    private static BadParcelableException receiveFailure(int i, int N, Throwable cause) {
+        final BadParcelableException e = new BadParcelableException(
+                "Failure retrieving array; only received " + i + " of " + N);
+        e.initCause(cause);
+        return e;
+    }
+
+    /**
+     * Fetch the chunk starting at start. If the rest of the list, estimated at remainingSize
+     * bytes, fits in this chunk, there is nothing to overlap with and it is fetched on the calling
+     * thread, otherwise on a prefetch thread. The result is null if the retriever doesn't know
+     * {@link #FETCH_CHUNK_TRANSACTION}.
+     */
+    private static ChunkFetch fetchChunk(IBinder retriever, int start, int size,
+                                         long remainingSize) {
+        final ChunkFetch fetch = new ChunkFetch(retriever, start, size);
+        if (remainingSize <= size) {
+            fetch.run();
+        } else {
+            sPrefetchExecutor.execute(fetch);
+        }
+        return fetch;
+    }
+
+    private static class ChunkFetch extends FutureTask<Parcel> {
+
+        ChunkFetch(IBinder retriever, int start, int size) {
+            super(() -> {
+                Parcel data = Parcel.obtain();
+                Parcel reply = Parcel.obtain();
+                try {
+                    data.writeInt(start);
+                    data.writeInt(size);
+                    if (!retriever.transact(FETCH_CHUNK_TRANSACTION, data, reply, 0)) {
+                        reply.recycle();
+                        return null;
+                    }
+                    return reply;
+                } catch (RemoteException | RuntimeException e) {
+                    reply.recycle();
+                    throw e;
+                } finally {
+                    data.recycle();
+                }
+            });
+        }
+
+        @Override
+        protected void set(Parcel reply) {
+            super.set(reply);
+            // Nobody is going to get a reply that arrived after the fetch was discarded.
+            if (isCancelled() && reply != null) {
+                reply.recycle();
+            }
+        }
+
+        /** Give up on the chunk and recycle it if it has already arrived. */
+        void discard() {
+            if (cancel(false)) {
+                return;
+            }
+            try {
+                final Parcel reply = get();
+                if (reply != null) {
+                    reply.recycle();
+                }
+            } catch (ExecutionException | InterruptedException | CancellationException ignored) {
+            }
+        }
+    }
+
+    private void readChunksSerially(IBinder retriever, Creator<?> creator,
+                                    Class<?> listElementClass, int i, int N,
+                                    ClassLoader loader) {
         while (i < N) {
             Parcel data = Parcel.obtain();
             Parcel reply = Parcel.obtain();
@@ -85,8 +258,9 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
             try {
                 retriever.transact(IBinder.FIRST_CALL_TRANSACTION, data, reply, 0);
             } catch (RemoteException e) {
-                Log.w(TAG, "Failure retrieving array; only received " + i + " of " + N, e);
-                return;
+                reply.recycle();
+                data.recycle();
+                throw receiveFailure(i, N, e);
             }
             while (i < N && reply.readInt() != 0) {
                 final T parcelable = readCreator(creator, reply, loader);
@@ -155,6 +329,39 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
                     @Override
                     protected boolean onTransact(int code, Parcel data, Parcel reply, int flags)
                             throws RemoteException {
+                        if (code == FETCH_CHUNK_TRANSACTION) {
+                            int i = data.readInt();
+                            if (i < 0 || i >= N) {
+                                return false;
+                            }
+                            final int requested = data.readInt();
+                            final int size = requested > 0
+                                    ? Math.min(MAX_CHUNK_SIZE, requested) : MAX_IPC_SIZE;
+                            // The end index goes first, it is known once the chunk is full.
+                            final int endPosition = reply.dataPosition();
+                            reply.writeInt(0);
+                            final int start = reply.dataSize();
+                            final int first = i;
+                            do {
+                                final int elementStart = reply.dataPosition();
+                                final T parcelable = mList.get(i);
+                                verifySameType(listElementClass, parcelable.getClass());
+                                writeElement(parcelable, reply, callFlags);
+                                if (reply.dataSize() - start > size && i > first) {
+                                    // Keep the reply within the size, the element goes first
+                                    // in the next chunk.
+                                    reply.setDataSize(elementStart);
+                                    reply.setDataPosition(elementStart);
+                                    break;
+                                }
+                                i++;
+                            } while (i < N && reply.dataSize() - start < size);
+                            final int position = reply.dataPosition();
+                            reply.setDataPosition(endPosition);
+                            reply.writeInt(i);
+                            reply.setDataPosition(position);
+                            return true;
+                        }
                         if (code != FIRST_CALL_TRANSACTION) {
                             return super.onTransact(code, data, reply, flags);
                         }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.model;
+
+import android.content.pm.ApplicationInfo;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The few fields of a {@link android.content.pm.PackageInfo} the app list needs, a fraction of
+ * its size across binder.
+ */
+public class PackageSummary implements Parcelable {
+    @NonNull
+    public final String packageName;
+    public final int uid;
+    /** {@link ApplicationInfo#flags}. */
+    public final int flags;
+    public final long lastUpdateTime;
+    public final long longVersionCode;
+
+    public PackageSummary(@NonNull String packageName, int uid, int flags, long lastUpdateTime,
+                          long longVersionCode) {
+        this.packageName = packageName;
+        this.uid = uid;
+        this.flags = flags;
+        this.lastUpdateTime = lastUpdateTime;
+        this.longVersionCode = longVersionCode;
+    }
+
+    public boolean isSystemApp() {
+        return (flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+    }
+
+    private PackageSummary(Parcel in) {
+        packageName = in.readString();
+        uid = in.readInt();
+        flags = in.readInt();
+        lastUpdateTime = in.readLong();
+        longVersionCode = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeString(packageName);
+        dest.writeInt(uid);
+        dest.writeInt(this.flags);
+        dest.writeLong(lastUpdateTime);
+        dest.writeLong(longVersionCode);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<PackageSummary> CREATOR = new Creator<PackageSummary>() {
+        @Override
+        public PackageSummary createFromParcel(Parcel in) {
+            return new PackageSummary(in);
+        }
+
+        @Override
+        public PackageSummary[] newArray(int size) {
+            return new PackageSummary[size];
+        }
+    };
+}
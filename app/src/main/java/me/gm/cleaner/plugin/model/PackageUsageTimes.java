@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.model;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+import me.gm.cleaner.plugin.dao.MediaProviderOperation;
+
+/**
+ * How many times a package has performed an operation, as kept by the usage counters.
+ */
+public class PackageUsageTimes implements Parcelable {
+    @NonNull
+    public final String packageName;
+    @MediaProviderOperation
+    public final int operation;
+    public final int times;
+
+    public PackageUsageTimes(@NonNull String packageName, int operation, int times) {
+        this.packageName = packageName;
+        this.operation = operation;
+        this.times = times;
+    }
+
+    private PackageUsageTimes(Parcel in) {
+        packageName = in.readString();
+        operation = in.readInt();
+        times = in.readInt();
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeString(packageName);
+        dest.writeInt(operation);
+        dest.writeInt(times);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<PackageUsageTimes> CREATOR = new Creator<PackageUsageTimes>() {
+        @Override
+        public PackageUsageTimes createFromParcel(Parcel in) {
+            return new PackageUsageTimes(in);
+        }
+
+        @Override
+        public PackageUsageTimes[] newArray(int size) {
+            return new PackageUsageTimes[size];
+        }
+    };
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.model
+
+import android.os.Parcel
+import android.os.Parcelable
+import android.os.SharedMemory
+import android.system.OsConstants
+import me.gm.cleaner.plugin.dao.MediaProviderRecord
+import me.gm.cleaner.plugin.dao.RecordCodec
+import java.io.Closeable
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Records laid out in columns in a [SharedMemory] region, so that only a file descriptor crosses
+ * the binder however many records there are. The region holds, in native byte order:
+ *
+ * - a header: version, record count and package count, as ints;
+ * - the package names, each an int byte length followed by UTF-8 bytes;
+ * - padding to 8 bytes, then the columns id, time millis and last time millis as longs, then
+ *   package index, match, operation and repeat count as ints, then count + 1 block offsets;
+ * - one block per record: its paths, MIME types and verdicts, each an int byte length followed
+ *   by the [RecordCodec] blob.
+ *
+ * The client maps the region read-only with [read], paths are only decoded when asked for. A
+ * [Reader] isn't thread safe.
+ */
+class RecordBatch private constructor(private val sharedMemory: SharedMemory) : Parcelable {
+
+    fun read(): Reader = Reader(sharedMemory)
+
+    override fun writeToParcel(dest: Parcel, flags: Int) {
+        sharedMemory.writeToParcel(dest, flags)
+        if (flags and Parcelable.PARCELABLE_WRITE_RETURN_VALUE != 0) {
+            // The parcel holds a dup of the descriptor.
+            sharedMemory.close()
+        }
+    }
+
+    override fun describeContents(): Int = Parcelable.CONTENTS_FILE_DESCRIPTOR
+
+    class Reader internal constructor(private val sharedMemory: SharedMemory) : Closeable {
+        private val buffer = sharedMemory.mapReadOnly().order(ByteOrder.nativeOrder())
+        val size: Int
+        private val packageNames: Array<String>
+        private val columnsOffset: Int
+
+        init {
+            val version = buffer.getInt(0)
+            require(version == VERSION_1) { "Unknown batch version $version" }
+            size = buffer.getInt(4)
+            var position = HEADER_SIZE
+            packageNames = Array(buffer.getInt(8)) {
+                val length = buffer.getInt(position)
+                val bytes = ByteArray(length)
+                buffer.position(position + 4)
+                buffer.get(bytes)
+                position += 4 + length
+                String(bytes, Charsets.UTF_8)
+            }
+            columnsOffset = align(position)
+        }
+
+        private fun longAt(column: Int, index: Int): Long =
+            buffer.getLong(columnsOffset + (column * size + index) * 8)
+
+        private fun intAt(column: Int, index: Int): Int =
+            buffer.getInt(columnsOffset + LONG_COLUMNS * size * 8 + (column * size + index) * 4)
+
+        fun id(index: Int): Long = longAt(0, index)
+
+        fun timeMillis(index: Int): Long = longAt(1, index)
+
+        fun packageName(index: Int): String = packageNames[intAt(0, index)]
+
+        fun operation(index: Int): Int = intAt(2, index)
+
+        /** Decode the record at index, including its paths. */
+        fun record(index: Int): MediaProviderRecord {
+            var position = intAt(4, index)
+            fun nextBlob(): ByteArray {
+                val blob = ByteArray(buffer.getInt(position))
+                buffer.position(position + 4)
+                buffer.get(blob)
+                position += 4 + blob.size
+                return blob
+            }
+            return MediaProviderRecord(
+                id(index),
+                timeMillis(index),
+                packageName(index),
+                intAt(1, index),
+                operation(index),
+                RecordCodec.decodeStrings(nextBlob()).requireNoNulls(),
+                RecordCodec.decodeStrings(nextBlob()),
+                RecordCodec.decodeBooleans(nextBlob()),
+                intAt(3, index),
+                longAt(2, index),
+            )
+        }
+
+        override fun close() {
+            SharedMemory.unmap(buffer)
+            sharedMemory.close()
+        }
+    }
+
+    companion object {
+        private const val VERSION_1 = 1
+        private const val HEADER_SIZE = 12
+        private const val LONG_COLUMNS = 3
+        private const val INT_COLUMNS = 4
+
+        private fun align(offset: Int): Int = (offset + 7) and 7.inv()
+
+        fun of(records: List<MediaProviderRecord>): RecordBatch {
+            val packageIndices = LinkedHashMap<String, Int>()
+            records.forEach { packageIndices.getOrPut(it.packageName) { packageIndices.size } }
+            val packageNames = packageIndices.keys.map { it.toByteArray() }
+            val blocks = records.map {
+                arrayOf(
+                    RecordCodec.encodeStrings(it.data),
+                    RecordCodec.encodeStrings(it.mimeType),
+                    RecordCodec.encodeBooleans(it.intercepted),
+                )
+            }
+            val size = records.size
+            val columnsOffset = align(HEADER_SIZE + packageNames.sumOf { 4 + it.size })
+            val blocksOffset = columnsOffset + LONG_COLUMNS * size * 8 + INT_COLUMNS * size * 4 +
+                    (size + 1) * 4
+            val totalSize = blocksOffset + blocks.sumOf { block -> block.sumOf { 4 + it.size } }
+
+            val sharedMemory = SharedMemory.create("RecordBatch", totalSize)
+            val buffer = sharedMemory.mapReadWrite().order(ByteOrder.nativeOrder())
+            try {
+                buffer.putInt(VERSION_1).putInt(size).putInt(packageNames.size)
+                packageNames.forEach { buffer.putInt(it.size).put(it) }
+                buffer.position(columnsOffset)
+                records.forEach { buffer.putLong(it.id) }
+                records.forEach { buffer.putLong(it.timeMillis) }
+                records.forEach { buffer.putLong(it.lastTimeMillis) }
+                records.forEach { buffer.putInt(packageIndices[it.packageName]!!) }
+                records.forEach { buffer.putInt(it.match) }
+                records.forEach { buffer.putInt(it.operation) }
+                records.forEach { buffer.putInt(it.repeatCount) }
+                var blockOffset = blocksOffset
+                blocks.forEach { block ->
+                    buffer.putInt(blockOffset)
+                    blockOffset += block.sumOf { 4 + it.size }
+                }
+                buffer.putInt(blockOffset)
+                blocks.forEach { block -> block.forEach { buffer.putInt(it.size).put(it) } }
+            } finally {
+                SharedMemory.unmap(buffer)
+            }
+            sharedMemory.setProtect(OsConstants.PROT_READ)
+            return RecordBatch(sharedMemory)
+        }
+
+        @JvmField
+        val CREATOR = object : Parcelable.Creator<RecordBatch> {
+            override fun createFromParcel(source: Parcel) =
+                RecordBatch(SharedMemory.CREATOR.createFromParcel(source))
+
+            override fun newArray(size: Int): Array<RecordBatch?> = arrayOfNulls(size)
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.model;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+import me.gm.cleaner.plugin.dao.MediaProviderOperation;
+
+/**
+ * Which records an {@link me.gm.cleaner.plugin.IRecordObserver} wants to hear about.
+ */
+public class RecordFilter implements Parcelable {
+    @NonNull
+    @MediaProviderOperation
+    public final int[] operations;
+    /** Null for all packages. */
+    @Nullable
+    public final String[] packageNames;
+    public final long startTimeMillis;
+    public final long endTimeMillis;
+
+    public RecordFilter(@NonNull int[] operations, @Nullable String[] packageNames,
+                        long startTimeMillis, long endTimeMillis) {
+        this.operations = operations;
+        this.packageNames = packageNames;
+        this.startTimeMillis = startTimeMillis;
+        this.endTimeMillis = endTimeMillis;
+    }
+
+    public boolean matches(@NonNull String packageName, @MediaProviderOperation int operation,
+                           long timeMillis) {
+        if (timeMillis < startTimeMillis || timeMillis > endTimeMillis) {
+            return false;
+        }
+        boolean isOperationMatched = false;
+        for (int op : operations) {
+            if (op == operation) {
+                isOperationMatched = true;
+                break;
+            }
+        }
+        return isOperationMatched &&
+                (packageNames == null || Arrays.asList(packageNames).contains(packageName));
+    }
+
+    private RecordFilter(Parcel in) {
+        operations = in.createIntArray();
+        packageNames = in.createStringArray();
+        startTimeMillis = in.readLong();
+        endTimeMillis = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeIntArray(operations);
+        dest.writeStringArray(packageNames);
+        dest.writeLong(startTimeMillis);
+        dest.writeLong(endTimeMillis);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<RecordFilter> CREATOR = new Creator<RecordFilter>() {
+        @Override
+        public RecordFilter createFromParcel(Parcel in) {
+            return new RecordFilter(in);
+        }
+
+        @Override
+        public RecordFilter[] newArray(int size) {
+            return new RecordFilter[size];
+        }
+    };
+}
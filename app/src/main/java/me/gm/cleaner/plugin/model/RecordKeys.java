@@ -0,0 +1,70 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.model;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Keys of records newest first, laid out in columns. Row i is the record {@code id[i]} written at
+ * {@code timeMillis[i]}, the last row is where the next page starts.
+ */
+public class RecordKeys implements Parcelable {
+    @NonNull
+    public final long[] timeMillis;
+    @NonNull
+    public final long[] id;
+
+    public RecordKeys(@NonNull long[] timeMillis, @NonNull long[] id) {
+        this.timeMillis = timeMillis;
+        this.id = id;
+    }
+
+    public int size() {
+        return id.length;
+    }
+
+    private RecordKeys(Parcel in) {
+        timeMillis = in.createLongArray();
+        id = in.createLongArray();
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeLongArray(timeMillis);
+        dest.writeLongArray(id);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<RecordKeys> CREATOR = new Creator<RecordKeys>() {
+        @Override
+        public RecordKeys createFromParcel(Parcel in) {
+            return new RecordKeys(in);
+        }
+
+        @Override
+        public RecordKeys[] newArray(int size) {
+            return new RecordKeys[size];
+        }
+    };
+}
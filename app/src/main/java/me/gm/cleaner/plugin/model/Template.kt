@@ -18,10 +18,6 @@ package me.gm.cleaner.plugin.model
 
 import com.google.gson.Gson
 import com.google.gson.annotations.SerializedName
-import me.gm.cleaner.plugin.xposed.hooker.InsertHooker
-import me.gm.cleaner.plugin.xposed.hooker.QueryHooker
-import me.gm.cleaner.plugin.xposed.util.FileUtils
-import me.gm.cleaner.plugin.xposed.util.MimeUtils
 
 data class Template(
     @field:SerializedName("template_name") val templateName: String,
@@ -29,13 +25,16 @@ data class Template(
     @field:SerializedName("apply_to_app") val applyToApp: List<String>?,
     @field:SerializedName("permitted_media_types") val permittedMediaTypes: List<Int>?,
     @field:SerializedName("filter_path") val filterPath: List<String>?,
-)
+) {
+    /** [permittedMediaTypes] as a bitmask, bit n is set if media type n is permitted. */
+    fun permittedMediaTypesMask(): Int =
+        permittedMediaTypes?.fold(0) { mask, mediaType -> mask or (1 shl mediaType) } ?: 0
+}
 
 class Templates(json: String?) {
     private val _values = mutableListOf<Template>()
     val values: List<Template>
         get() = _values
-    private lateinit var matchingTemplates: List<Template>
 
     init {
         if (!json.isNullOrEmpty()) {
@@ -44,25 +43,4 @@ class Templates(json: String?) {
             )
         }
     }
-
-    fun filterTemplate(cls: Class<*>, packageName: String): Templates {
-        matchingTemplates = _values.filter { template ->
-            when (cls) {
-                QueryHooker::class.java -> template.hookOperation.contains("query")
-                InsertHooker::class.java -> template.hookOperation.contains("insert")
-                else -> throw IllegalArgumentException()
-            } && template.applyToApp?.contains(packageName) == true
-        }
-        return this
-    }
-
-    fun applyTemplates(dataList: List<String>, mimeTypeList: List<String>): List<Boolean> =
-        dataList.zip(mimeTypeList).map { (data, mimeType) ->
-            (if (::matchingTemplates.isInitialized) matchingTemplates else _values)
-                .any { template ->
-                    MimeUtils.resolveMediaType(mimeType) !in
-                            (template.permittedMediaTypes ?: emptyList()) ||
-                            template.filterPath?.any { FileUtils.contains(it, data) } == true
-                }
-        }
 }
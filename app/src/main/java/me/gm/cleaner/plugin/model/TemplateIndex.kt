@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.model
+
+import me.gm.cleaner.plugin.dao.MediaProviderOperation
+import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_INSERT
+import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_QUERY
+import me.gm.cleaner.plugin.xposed.util.MimeUtils
+import me.gm.cleaner.plugin.xposed.util.PathPrefixTrie
+
+/**
+ * Read-only snapshot of [Templates] keyed by operation and package name. It is built once per
+ * write of the templates and shared by all binder threads without locking.
+ */
+class TemplateIndex(templates: Templates) {
+    private val queryIndex: Map<String, MatchingTemplates>
+    private val insertIndex: Map<String, MatchingTemplates>
+
+    init {
+        // Packages sharing the same templates share the same instance.
+        val interned = mutableMapOf<List<Template>, MatchingTemplates>()
+        fun build(operation: String): Map<String, MatchingTemplates> {
+            val packageNameToTemplates = mutableMapOf<String, MutableList<Template>>()
+            templates.values.forEach { template ->
+                if (template.hookOperation.contains(operation)) {
+                    template.applyToApp?.forEach { packageName ->
+                        packageNameToTemplates.getOrPut(packageName) { mutableListOf() } += template
+                    }
+                }
+            }
+            return packageNameToTemplates.mapValues { (_, matching) ->
+                interned.getOrPut(matching) { MatchingTemplates(matching) }
+            }
+        }
+        queryIndex = build("query")
+        insertIndex = build("insert")
+    }
+
+    fun matchingTemplates(
+        @MediaProviderOperation operation: Int, packageName: String
+    ): MatchingTemplates = when (operation) {
+        OP_QUERY -> queryIndex[packageName]
+        OP_INSERT -> insertIndex[packageName]
+        else -> null
+    } ?: MatchingTemplates.EMPTY
+}
+
+/**
+ * Templates that apply to a single package and operation.
+ */
+class MatchingTemplates(val templates: List<Template>) {
+    /** Union of all filter paths, a row is intercepted if it is under any of them. */
+    val filterPathList = templates.flatMap { it.filterPath ?: emptyList() }.distinct()
+    private val filterPaths = PathPrefixTrie(filterPathList)
+
+    /** Media types permitted by all templates, a row is intercepted if its type isn't in here. */
+    private val permittedMediaTypesMask =
+        templates.fold(-1) { mask, template -> mask and template.permittedMediaTypesMask() }
+
+    fun isEmpty(): Boolean = templates.isEmpty()
+
+    fun isMediaTypePermitted(mediaType: Int): Boolean =
+        templates.isEmpty() || (permittedMediaTypesMask and (1 shl mediaType)) != 0
+
+    /** A null MIME type is of media type none, a null path is under no filter path. */
+    fun shouldIntercept(data: String?, mimeType: String?): Boolean {
+        if (templates.isEmpty()) {
+            return false
+        }
+        val mediaType = MimeUtils.resolveMediaTypeCached(mimeType)
+        return (permittedMediaTypesMask and (1 shl mediaType)) == 0 ||
+                data != null && filterPaths.containsChild(data)
+    }
+
+    companion object {
+        val EMPTY = MatchingTemplates(emptyList())
+    }
+}
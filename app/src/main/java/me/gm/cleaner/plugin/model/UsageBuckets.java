@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.model;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Usage of packages summed into time buckets, laid out in columns. Row i is the usage of
+ * {@code packageNames[packageIndex[i]]} for {@code operation[i]} in the bucket starting at
+ * {@code bucketStart[i]}. Rows are ordered by bucket.
+ */
+public class UsageBuckets implements Parcelable {
+    /** Distinct package names, referred to by {@link #packageIndex}. */
+    @NonNull
+    public final String[] packageNames;
+    @NonNull
+    public final long[] bucketStart;
+    @NonNull
+    public final int[] packageIndex;
+    @NonNull
+    public final int[] operation;
+    @NonNull
+    public final int[] count;
+    /** How many of {@link #count} intercepted at least one file. */
+    @NonNull
+    public final int[] interceptedCount;
+
+    public UsageBuckets(@NonNull String[] packageNames, @NonNull long[] bucketStart,
+                        @NonNull int[] packageIndex, @NonNull int[] operation,
+                        @NonNull int[] count, @NonNull int[] interceptedCount) {
+        this.packageNames = packageNames;
+        this.bucketStart = bucketStart;
+        this.packageIndex = packageIndex;
+        this.operation = operation;
+        this.count = count;
+        this.interceptedCount = interceptedCount;
+    }
+
+    public int size() {
+        return bucketStart.length;
+    }
+
+    private UsageBuckets(Parcel in) {
+        packageNames = in.createStringArray();
+        bucketStart = in.createLongArray();
+        packageIndex = in.createIntArray();
+        operation = in.createIntArray();
+        count = in.createIntArray();
+        interceptedCount = in.createIntArray();
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeStringArray(packageNames);
+        dest.writeLongArray(bucketStart);
+        dest.writeIntArray(packageIndex);
+        dest.writeIntArray(operation);
+        dest.writeIntArray(count);
+        dest.writeIntArray(interceptedCount);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<UsageBuckets> CREATOR = new Creator<UsageBuckets>() {
+        @Override
+        public UsageBuckets createFromParcel(Parcel in) {
+            return new UsageBuckets(in);
+        }
+
+        @Override
+        public UsageBuckets[] newArray(int size) {
+            return new UsageBuckets[size];
+        }
+    };
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.ui.module;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.io.FileNotFoundException;
+
+import me.gm.cleaner.plugin.model.PackageSummary;
+
+/**
+ * An implementation of {@link ModelLoader} to support {@link com.bumptech.glide.Glide} loading for
+ * app icons from {@link AppInfoCache}, by {@link PackageInfo} or by {@link PackageSummary}. A
+ * summary can only be loaded if its icon is cached, see {@link AppInfoCache#peekIcon}.
+ * <p>
+ * Icons are handed over as a {@link Drawable} rather than a {@link Bitmap}, so that Glide doesn't
+ * put the shared bitmaps of the cache into its pool.
+ */
+public class AppIconModelLoader<Model> implements ModelLoader<Model, Drawable> {
+    private final Context mContext;
+    private final IconSource<Model> mSource;
+
+    private interface IconSource<Model> {
+        @NonNull
+        String getKey(@NonNull Model model);
+
+        @Nullable
+        Bitmap getIcon(@NonNull Model model);
+    }
+
+    AppIconModelLoader(Context context, IconSource<Model> source) {
+        mContext = context;
+        mSource = source;
+    }
+
+    @Override
+    public boolean handles(@NonNull Model model) {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public LoadData<Drawable> buildLoadData(@NonNull Model model, int width, int height,
+                                            @NonNull Options options) {
+        return new LoadData<>(new ObjectKey(mSource.getKey(model)), new AppIconFetcher(model));
+    }
+
+    class AppIconFetcher implements DataFetcher<Drawable> {
+        private final Model mModel;
+
+        private AppIconFetcher(Model model) {
+            mModel = model;
+        }
+
+        @Override
+        public void loadData(@NonNull Priority priority,
+                             @NonNull DataCallback<? super Drawable> callback) {
+            try {
+                var icon = mSource.getIcon(mModel);
+                if (icon == null) {
+                    callback.onLoadFailed(new FileNotFoundException("Icon not cached"));
+                    return;
+                }
+                callback.onDataReady(new BitmapDrawable(mContext.getResources(), icon));
+            } catch (Exception e) {
+                callback.onLoadFailed(e);
+            }
+        }
+
+        @Override
+        public void cleanup() {
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @NonNull
+        @Override
+        public Class<Drawable> getDataClass() {
+            return Drawable.class;
+        }
+
+        @NonNull
+        @Override
+        public DataSource getDataSource() {
+            return DataSource.LOCAL;
+        }
+    }
+
+    public static class Factory<Model> implements ModelLoaderFactory<Model, Drawable> {
+        @NonNull
+        private final Context mContext;
+        @NonNull
+        private final IconSource<Model> mSource;
+
+        private Factory(@NonNull Context context, @NonNull IconSource<Model> source) {
+            mContext = context.getApplicationContext();
+            mSource = source;
+        }
+
+        @NonNull
+        public static Factory<PackageInfo> forPackageInfo(@NonNull Context context) {
+            var cache = AppInfoCache.from(context);
+            return new Factory<>(context, new IconSource<>() {
+                @NonNull
+                @Override
+                public String getKey(@NonNull PackageInfo packageInfo) {
+                    return packageInfo.packageName + "@" + packageInfo.lastUpdateTime;
+                }
+
+                @Override
+                public Bitmap getIcon(@NonNull PackageInfo packageInfo) {
+                    return cache.getIcon(packageInfo);
+                }
+            });
+        }
+
+        @NonNull
+        public static Factory<PackageSummary> forPackageSummary(@NonNull Context context) {
+            var cache = AppInfoCache.from(context);
+            return new Factory<>(context, new IconSource<>() {
+                @NonNull
+                @Override
+                public String getKey(@NonNull PackageSummary summary) {
+                    return summary.packageName + "@" + summary.lastUpdateTime;
+                }
+
+                @Override
+                public Bitmap getIcon(@NonNull PackageSummary summary) {
+                    return cache.peekIcon(summary.packageName, summary.lastUpdateTime);
+                }
+            });
+        }
+
+        @NonNull
+        @Override
+        public ModelLoader<Model, Drawable> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new AppIconModelLoader<>(mContext, mSource);
+        }
+
+        @Override
+        public void teardown() {
+        }
+    }
+}
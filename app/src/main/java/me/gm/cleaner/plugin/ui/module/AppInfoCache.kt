@@ -0,0 +1,222 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.ui.module
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.SharedPreferences
+import android.content.pm.PackageInfo
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.util.LruCache
+import androidx.core.content.ContextCompat
+import dagger.hilt.EntryPoint
+import dagger.hilt.InstallIn
+import dagger.hilt.android.EntryPointAccessors
+import dagger.hilt.android.qualifiers.ApplicationContext
+import dagger.hilt.components.SingletonComponent
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asExecutor
+import me.gm.cleaner.plugin.R
+import me.zhanghai.android.appiconloader.AppIconLoader
+import java.io.File
+import java.io.IOException
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Icons and labels of apps, shared by every screen that shows them. Both are keyed by package
+ * name and [PackageInfo.lastUpdateTime], so an updated app is loaded again. Icons are kept in
+ * memory decoded at [R.dimen.badge_size], and on disk as PNGs. Labels are kept in memory and in
+ * [SharedPreferences], one file per locale. Apps unchanged since they were last cached are
+ * served without touching the [android.content.pm.PackageManager]. Everything stored of a package
+ * is deleted when it is fully removed.
+ */
+@Singleton
+class AppInfoCache @Inject constructor(@ApplicationContext private val context: Context) {
+    private val iconSize = context.resources.getDimensionPixelSize(R.dimen.badge_size)
+    private val iconLoader = AppIconLoader(iconSize, false, context)
+    private val iconDir = File(context.cacheDir, ICON_DIR)
+    private val icons = object : LruCache<Key, Bitmap>(MAX_ICON_BYTES) {
+        override fun sizeOf(key: Key, value: Bitmap) = value.allocationByteCount
+    }
+    private val iconLocks = ConcurrentHashMap<String, Any>()
+
+    // The locale tags that have a labels file, so forget finds them all.
+    private val labelLocales = context.getSharedPreferences(LABEL_LOCALES, Context.MODE_PRIVATE)
+
+    @Volatile
+    private var labels = Labels(Locale.getDefault())
+
+    private data class Key(val packageName: String, val lastUpdateTime: Long) {
+        constructor(pi: PackageInfo) : this(pi.packageName, pi.lastUpdateTime)
+    }
+
+    private inner class Labels(val locale: Locale) {
+        val memory = ConcurrentHashMap<Key, String>()
+        val store: SharedPreferences = context.getSharedPreferences(
+            LABELS_PREFIX + locale.toLanguageTag(), Context.MODE_PRIVATE
+        )
+
+        init {
+            synchronized(labelLocales) {
+                val tags = labelLocales.getStringSet(LABEL_LOCALES_KEY, emptySet())!!
+                if (locale.toLanguageTag() !in tags) {
+                    labelLocales.edit()
+                        .putStringSet(LABEL_LOCALES_KEY, tags + locale.toLanguageTag())
+                        .apply()
+                }
+            }
+        }
+    }
+
+    init {
+        val filter = IntentFilter(Intent.ACTION_PACKAGE_FULLY_REMOVED).apply {
+            addDataScheme("package")
+        }
+        ContextCompat.registerReceiver(context, object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                val packageName = intent.data?.schemeSpecificPart ?: return
+                val result = goAsync()
+                Dispatchers.IO.asExecutor().execute {
+                    try {
+                        forget(packageName)
+                    } finally {
+                        result.finish()
+                    }
+                }
+            }
+        }, filter, ContextCompat.RECEIVER_NOT_EXPORTED)
+    }
+
+    private fun currentLabels(): Labels = labels.takeIf { it.locale == Locale.getDefault() }
+        ?: Labels(Locale.getDefault()).also { labels = it }
+
+    /** The label if cached, never touches the [android.content.pm.PackageManager]. */
+    fun peekLabel(packageName: String, lastUpdateTime: Long): String? {
+        val labels = currentLabels()
+        val key = Key(packageName, lastUpdateTime)
+        labels.memory[key]?.let { return it }
+        // Stored as "lastUpdateTime:label" under the package name, which drops stale ones.
+        val stored = labels.store.getString(packageName, null)
+        val prefix = "$lastUpdateTime:"
+        if (stored == null || !stored.startsWith(prefix)) {
+            return null
+        }
+        return stored.substring(prefix.length).also { labels.memory[key] = it }
+    }
+
+    fun getLabel(pi: PackageInfo): String {
+        peekLabel(pi.packageName, pi.lastUpdateTime)?.let { return it }
+        val label = context.packageManager.getApplicationLabel(pi.applicationInfo).toString()
+        val labels = currentLabels()
+        labels.memory[Key(pi)] = label
+        labels.store.edit().putString(pi.packageName, "${pi.lastUpdateTime}:$label").apply()
+        return label
+    }
+
+    fun hasIcon(packageName: String, lastUpdateTime: Long): Boolean =
+        icons.get(Key(packageName, lastUpdateTime)) != null ||
+                iconFile(packageName, lastUpdateTime).exists()
+
+    /**
+     * The icon at [R.dimen.badge_size] if cached. The bitmap is shared, don't modify or recycle
+     * it.
+     */
+    fun peekIcon(packageName: String, lastUpdateTime: Long): Bitmap? {
+        val key = Key(packageName, lastUpdateTime)
+        icons.get(key)?.let { return it }
+        return BitmapFactory.decodeFile(iconFile(packageName, lastUpdateTime).path)
+            ?.also { icons.put(key, it) }
+    }
+
+    /** Like [peekIcon], but loads and caches the icon if it isn't cached. */
+    fun getIcon(pi: PackageInfo): Bitmap {
+        peekIcon(pi.packageName, pi.lastUpdateTime)?.let { return it }
+        val icon = iconLoader.loadIcon(pi.applicationInfo)
+        storeIcon(pi.packageName, iconFile(pi.packageName, pi.lastUpdateTime), icon)
+        icons.put(Key(pi), icon)
+        return icon
+    }
+
+    private fun iconFile(packageName: String, lastUpdateTime: Long) =
+        File(iconDir, "$packageName@$lastUpdateTime.png")
+
+    /** Serializes writing and deleting the icon files of a package, Glide loads in parallel. */
+    private inline fun <R> withIconLock(packageName: String, block: () -> R): R =
+        synchronized(iconLocks.computeIfAbsent(packageName) { Any() }, block)
+
+    private fun deleteIconFiles(packageName: String, keep: String? = null) {
+        iconDir.listFiles { _, name -> name.startsWith("$packageName@") && name != keep }
+            ?.forEach { it.delete() }
+    }
+
+    private fun storeIcon(packageName: String, file: File, icon: Bitmap) {
+        try {
+            withIconLock(packageName) {
+                iconDir.mkdirs()
+                // Icons of older versions of the package.
+                deleteIconFiles(packageName, file.name)
+                val temp = File(iconDir, file.name + ".tmp")
+                temp.outputStream().use { icon.compress(Bitmap.CompressFormat.PNG, 100, it) }
+                temp.renameTo(file)
+            }
+        } catch (ignored: IOException) {
+            // Loaded again next time.
+        }
+    }
+
+    /** Drop the icon and the labels in every locale of a package that is gone. */
+    private fun forget(packageName: String) {
+        icons.snapshot().keys.forEach {
+            if (it.packageName == packageName) {
+                icons.remove(it)
+            }
+        }
+        withIconLock(packageName) { deleteIconFiles(packageName) }
+        iconLocks.remove(packageName)
+        labels.memory.keys.removeIf { it.packageName == packageName }
+        labelLocales.getStringSet(LABEL_LOCALES_KEY, emptySet())!!.forEach { tag ->
+            context.getSharedPreferences(LABELS_PREFIX + tag, Context.MODE_PRIVATE)
+                .edit().remove(packageName).apply()
+        }
+    }
+
+    @EntryPoint
+    @InstallIn(SingletonComponent::class)
+    interface AppInfoCacheEntryPoint {
+        fun appInfoCache(): AppInfoCache
+    }
+
+    companion object {
+        private const val ICON_DIR = "app_icons"
+        private const val LABELS_PREFIX = "app_labels_"
+        private const val LABEL_LOCALES = "app_label_locales"
+        private const val LABEL_LOCALES_KEY = "locales"
+        private const val MAX_ICON_BYTES = 8 * 1024 * 1024
+
+        /** The singleton, for the classes Hilt doesn't inject into. */
+        @JvmStatic
+        fun from(context: Context): AppInfoCache = EntryPointAccessors
+            .fromApplication(context, AppInfoCacheEntryPoint::class.java)
+            .appInfoCache()
+    }
+}
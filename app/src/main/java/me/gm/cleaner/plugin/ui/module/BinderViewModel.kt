@@ -20,16 +20,26 @@ import android.content.pm.PackageInfo
 import android.os.IBinder
 import android.os.Process
 import android.util.SparseArray
+import android.util.SparseIntArray
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
 import dagger.hilt.android.lifecycle.HiltViewModel
 import me.gm.cleaner.plugin.IManagerService
 import me.gm.cleaner.plugin.IMediaChangeObserver
+import me.gm.cleaner.plugin.IRecordObserver
+import me.gm.cleaner.plugin.model.PackageSummary
+import me.gm.cleaner.plugin.model.RecordBatch
+import me.gm.cleaner.plugin.model.RecordFilter
+import me.gm.cleaner.plugin.model.RecordKeys
+import me.gm.cleaner.plugin.model.UsageBuckets
 import javax.inject.Inject
 
 @HiltViewModel
-class BinderViewModel @Inject constructor(private val binder: IBinder?) : ViewModel() {
+class BinderViewModel @Inject constructor(
+    private val binder: IBinder?,
+    private val packageMetadataCache: PackageMetadataCache,
+) : ViewModel() {
     private var service: IManagerService? = IManagerService.Stub.asInterface(binder)
     private val _remoteSpCacheLiveData = MutableLiveData(SparseArray<String>())
     val remoteSpCacheLiveData: LiveData<SparseArray<String>>
@@ -37,6 +47,9 @@ class BinderViewModel @Inject constructor(private val binder: IBinder?) : ViewMo
     val remoteSpCache: SparseArray<String>
         get() = _remoteSpCacheLiveData.value!!
 
+    @Volatile
+    private var packageUsageTimesCache: Map<String, SparseIntArray>? = null
+
     fun notifyRemoteSpChanged() {
         _remoteSpCacheLiveData.postValue(remoteSpCache)
     }
@@ -52,6 +65,22 @@ class BinderViewModel @Inject constructor(private val binder: IBinder?) : ViewMo
     fun getPackageInfo(packageName: String): PackageInfo? =
         service!!.getPackageInfo(packageName, 0, Process.myUid() / AID_USER_OFFSET)
 
+    /** The infos of the installed ones of packageNames, in a single call. */
+    fun getPackageInfos(packageNames: Array<String>): List<PackageInfo> =
+        service!!.getPackageInfos(packageNames, 0, Process.myUid() / AID_USER_OFFSET).list
+
+    fun getInstalledPackageSummaries(): List<PackageSummary> =
+        service!!.getInstalledPackageSummaries(Process.myUid() / AID_USER_OFFSET).list
+
+    /**
+     * Metadata of the installed ones of packageNames, the packages not cached are fetched in a
+     * single call.
+     */
+    fun getPackageMetadata(
+        packageNames: Collection<String>
+    ): Map<String, PackageMetadataCache.PackageMetadata> =
+        packageMetadataCache.getAll(packageNames, ::getPackageInfos)
+
     fun readSp(who: Int): String? =
         remoteSpCache[who, service!!.readSp(who).also { remoteSpCache.put(who, it) }]
 
@@ -65,10 +94,54 @@ class BinderViewModel @Inject constructor(private val binder: IBinder?) : ViewMo
 
     fun clearAllTables() {
         service!!.clearAllTables()
+        packageUsageTimesCache = emptyMap()
+    }
+
+    /**
+     * Fetch the usage times of all packages in a single call, [packageUsageTimes] answers from
+     * them until the next load.
+     */
+    fun loadPackageUsageTimes(): Map<String, SparseIntArray> {
+        val cache = mutableMapOf<String, SparseIntArray>()
+        service!!.allPackageUsageTimes.list.forEach {
+            cache.getOrPut(it.packageName) { SparseIntArray() }.put(it.operation, it.times)
+        }
+        packageUsageTimesCache = cache
+        return cache
+    }
+
+    fun packageUsageTimes(operation: Int, packageNames: List<String>): Int {
+        val cache = packageUsageTimesCache ?: loadPackageUsageTimes()
+        return packageNames.sumOf { cache[it]?.get(operation) ?: 0 }
     }
 
-    fun packageUsageTimes(operation: Int, packageNames: List<String>): Int =
-        service!!.packageUsageTimes(operation, packageNames)
+    fun getUsageBuckets(start: Long, end: Long, bucketMillis: Long): UsageBuckets =
+        service!!.getUsageBuckets(start, end, bucketMillis)
+
+    /**
+     * The caller owns the returned batch and must close its [RecordBatch.Reader].
+     */
+    fun readRecords(
+        start: Long, end: Long, operations: IntArray, beforeTimeMillis: Long, beforeId: Long,
+        limit: Int
+    ): RecordBatch =
+        service!!.readRecords(start, end, operations, beforeTimeMillis, beforeId, limit)
+
+    fun searchRecordKeys(
+        start: Long, end: Long, operations: IntArray, query: String, packageNames: List<String>,
+        beforeTimeMillis: Long, beforeId: Long, limit: Int
+    ): RecordKeys = service!!.searchRecordKeys(
+        start, end, operations, query, packageNames.toTypedArray(), beforeTimeMillis, beforeId,
+        limit
+    )
+
+    /**
+     * The caller owns the returned batch and must close its [RecordBatch.Reader].
+     */
+    fun readRecordsById(ids: LongArray): RecordBatch = service!!.readRecordsById(ids)
+
+    /** Depth, capacity and drop count of the service's record queue. */
+    fun getRecordQueueStats(): LongArray = service!!.recordQueueStats
 
     fun registerMediaChangeObserver(observer: IMediaChangeObserver) {
         service!!.registerMediaChangeObserver(observer)
@@ -78,6 +151,14 @@ class BinderViewModel @Inject constructor(private val binder: IBinder?) : ViewMo
         service!!.unregisterMediaChangeObserver(observer)
     }
 
+    fun registerRecordObserver(observer: IRecordObserver, filter: RecordFilter, afterId: Long) {
+        service!!.registerRecordObserver(observer, filter, afterId)
+    }
+
+    fun unregisterRecordObserver(observer: IRecordObserver) {
+        service!!.unregisterRecordObserver(observer)
+    }
+
     companion object {
         const val AID_USER_OFFSET = 100000
     }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.ui.module
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.pm.PackageInfo
+import androidx.core.content.ContextCompat
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * [PackageInfo] and label of the packages seen in usage records, by package name. Packages not
+ * cached yet are fetched together in one call, packages not installed are remembered as such.
+ * Entries are dropped when their package is added, changed or removed, and all of them when the
+ * locale changes.
+ */
+@Singleton
+class PackageMetadataCache @Inject constructor(
+    @ApplicationContext context: Context,
+    private val appInfoCache: AppInfoCache,
+) {
+    private val entries = ConcurrentHashMap<String, Entry>()
+
+    data class PackageMetadata(val packageInfo: PackageInfo, val label: String)
+
+    private class Entry(val metadata: PackageMetadata?)
+
+    init {
+        val packageFilter = IntentFilter().apply {
+            addAction(Intent.ACTION_PACKAGE_ADDED)
+            addAction(Intent.ACTION_PACKAGE_CHANGED)
+            addAction(Intent.ACTION_PACKAGE_REPLACED)
+            addAction(Intent.ACTION_PACKAGE_FULLY_REMOVED)
+            addDataScheme("package")
+        }
+        ContextCompat.registerReceiver(context, object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                intent.data?.schemeSpecificPart?.let { entries.remove(it) }
+            }
+        }, packageFilter, ContextCompat.RECEIVER_NOT_EXPORTED)
+        ContextCompat.registerReceiver(context, object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                entries.clear()
+            }
+        }, IntentFilter(Intent.ACTION_LOCALE_CHANGED), ContextCompat.RECEIVER_NOT_EXPORTED)
+    }
+
+    /**
+     * The metadata of the installed ones of packageNames. Those not cached are passed to
+     * [loadPackageInfos] at once, which returns the infos of the ones installed.
+     */
+    fun getAll(
+        packageNames: Collection<String>, loadPackageInfos: (Array<String>) -> List<PackageInfo>
+    ): Map<String, PackageMetadata> {
+        val missing = packageNames.filterTo(HashSet()) { it !in entries }
+        if (missing.isNotEmpty()) {
+            val loaded = loadPackageInfos(missing.toTypedArray()).associateBy { it.packageName }
+            missing.forEach { packageName ->
+                entries[packageName] = Entry(loaded[packageName]?.let {
+                    PackageMetadata(it, appInfoCache.getLabel(it))
+                })
+            }
+        }
+        val result = HashMap<String, PackageMetadata>(packageNames.size)
+        packageNames.forEach { packageName ->
+            entries[packageName]?.metadata?.let { result[packageName] = it }
+        }
+        return result
+    }
+}
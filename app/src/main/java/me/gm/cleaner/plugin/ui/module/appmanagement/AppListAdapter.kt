@@ -19,6 +19,7 @@ package me.gm.cleaner.plugin.ui.module.appmanagement
 import android.view.LayoutInflater
 import android.view.ViewGroup
 import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.lifecycleScope
 import androidx.navigation.fragment.FragmentNavigatorExtras
 import androidx.navigation.fragment.findNavController
 import androidx.recyclerview.widget.DiffUtil
@@ -26,6 +27,7 @@ import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
 import com.bumptech.glide.Glide
 import com.google.android.material.transition.platform.Hold
+import kotlinx.coroutines.launch
 import me.gm.cleaner.plugin.R
 import me.gm.cleaner.plugin.databinding.ApplistItemBinding
 import me.gm.cleaner.plugin.ktx.buildSpannableString
@@ -42,7 +44,7 @@ class AppListAdapter(private val fragment: AppListFragment) :
         val binding = holder.binding
         val model = getItem(position)
         Glide.with(fragment)
-            .load(model.packageInfo)
+            .load(model.summary)
             .into(binding.icon)
         binding.title.text = model.label
         binding.summary.text = if (model.ruleCount > 0) {
@@ -50,28 +52,36 @@ class AppListAdapter(private val fragment: AppListFragment) :
                 fragment.getString(R.string.enabled_rule_count, model.ruleCount)
             )
         } else {
-            model.packageInfo.packageName
+            model.summary.packageName
         }
-        binding.root.transitionName = model.packageInfo.packageName
-        binding.root.setOnClickListener {
-            val navController = fragment.findNavController()
-            if (navController.currentDestination?.id != R.id.applist_fragment) {
+        binding.root.transitionName = model.summary.packageName
+        binding.root.setOnClickListener { view ->
+            if (fragment.findNavController().currentDestination?.id != R.id.applist_fragment) {
                 return@setOnClickListener
             }
-            fragment.enterPackageName = model.packageInfo.packageName
-            fragment.exitTransition = Hold().apply {
-                duration = fragment.requireContext().mediumAnimTime
-            }
+            fragment.viewLifecycleOwner.lifecycleScope.launch {
+                // The app page shows more than the summary has.
+                val packageInfo = fragment.viewModel.loadPackageInfo(model.summary.packageName)
+                    ?: return@launch
+                val navController = fragment.findNavController()
+                if (navController.currentDestination?.id != R.id.applist_fragment) {
+                    return@launch
+                }
+                fragment.enterPackageName = model.summary.packageName
+                fragment.exitTransition = Hold().apply {
+                    duration = fragment.requireContext().mediumAnimTime
+                }
 
-            val direction = AppListFragmentDirections.actionApplistToApp(
-                packageInfo = model.packageInfo,
-                label = model.label,
-            )
-            val extras = FragmentNavigatorExtras(it to it.transitionName)
-            navController.navigate(direction, extras)
+                val direction = AppListFragmentDirections.actionApplistToApp(
+                    packageInfo = packageInfo,
+                    label = model.label,
+                )
+                val extras = FragmentNavigatorExtras(view to view.transitionName)
+                navController.navigate(direction, extras)
+            }
         }
 
-        if (fragment.enterPackageName == model.packageInfo.packageName) {
+        if (fragment.enterPackageName == model.summary.packageName) {
             fragment.startPostponedEnterTransition()
         }
     }
@@ -81,7 +91,7 @@ class AppListAdapter(private val fragment: AppListFragment) :
     companion object {
         private val CALLBACK = object : DiffUtil.ItemCallback<AppListModel>() {
             override fun areItemsTheSame(oldItem: AppListModel, newItem: AppListModel): Boolean =
-                oldItem.packageInfo.packageName == newItem.packageInfo.packageName
+                oldItem.summary.packageName == newItem.summary.packageName
 
             override fun areContentsTheSame(oldItem: AppListModel, newItem: AppListModel): Boolean =
                 oldItem == newItem
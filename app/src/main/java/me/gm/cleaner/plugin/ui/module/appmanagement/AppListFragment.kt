@@ -48,7 +48,7 @@ import rikka.recyclerview.fixEdgeEffect
 import java.lang.ref.WeakReference
 
 class AppListFragment : ModuleFragment() {
-    private val viewModel: AppListViewModel by viewModels(
+    val viewModel: AppListViewModel by viewModels(
         factoryProducer = {
             AppListViewModel.provideFactory(
                 requireContext().applicationContext as Application,
@@ -98,7 +98,13 @@ class AppListFragment : ModuleFragment() {
                 viewModel.appsFlow.collect { apps ->
                     // New value received
                     when (apps) {
-                        is AppListState.Loading -> binding.progress.progress = apps.progress
+                        is AppListState.Loading -> {
+                            binding.progress.progress = apps.progress
+                            if (apps.list.isNotEmpty()) {
+                                adapter.submitList(apps.list)
+                            }
+                        }
+
                         is AppListState.Done -> adapter.submitListKeepPosition(apps.list, list) {
                             binding.progress.hide()
                             binding.listContainer.isRefreshing = false
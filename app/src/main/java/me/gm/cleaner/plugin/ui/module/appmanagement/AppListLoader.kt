@@ -16,17 +16,33 @@
 
 package me.gm.cleaner.plugin.ui.module.appmanagement
 
-import android.content.pm.PackageManager
 import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.withContext
 import me.gm.cleaner.plugin.R
+import me.gm.cleaner.plugin.model.PackageSummary
 import me.gm.cleaner.plugin.model.Templates
+import me.gm.cleaner.plugin.ui.module.AppInfoCache
 import me.gm.cleaner.plugin.ui.module.BinderViewModel
+import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
-class AppListLoader(private val defaultDispatcher: CoroutineDispatcher = Dispatchers.Default) {
+/**
+ * Loads the app list from package summaries. Labels are resolved in parallel chunks, from
+ * [AppInfoCache] where possible. Only the packages it misses, or whose icon it misses, are
+ * fetched in full, with one call per chunk. Progress is reported with the apps loaded so far,
+ * at most once every [PROGRESS_INTERVAL_MILLIS].
+ */
+class AppListLoader(
+    // Chunks block on binder calls and the disk.
+    private val dispatcher: CoroutineDispatcher = Dispatchers.IO
+) {
 
     private fun fetchRuleCount(templates: Templates): Map<String, Int> {
         val map = mutableMapOf<String, Int>()
@@ -39,36 +55,88 @@ class AppListLoader(private val defaultDispatcher: CoroutineDispatcher = Dispatc
     }
 
     suspend fun load(
-        binderViewModel: BinderViewModel, pm: PackageManager, l: ProgressListener?
-    ) = withContext(defaultDispatcher) {
+        binderViewModel: BinderViewModel, appInfoCache: AppInfoCache, l: ProgressListener?
+    ) = withContext(dispatcher) {
         val packageNameToRuleCount =
             fetchRuleCount(Templates(binderViewModel.readSp(R.xml.template_preferences)))
-        val installedPackages = binderViewModel.getInstalledPackages(PackageManager.GET_PERMISSIONS)
-        val size = installedPackages.size
+        val summaries = binderViewModel.getInstalledPackageSummaries()
+        // The app pages read their usage times from this snapshot.
+        binderViewModel.loadPackageUsageTimes()
+        val size = summaries.size
         val count = AtomicInteger(0)
-        installedPackages.map { pi ->
+        val loaded = ConcurrentLinkedQueue<AppListModel>()
+        val lastReportMillis = AtomicLong(0)
+        coroutineScope {
+            summaries.chunked(CHUNK_SIZE).map { chunk ->
+                async {
+                    val models = loadChunk(binderViewModel, appInfoCache, chunk)
+                        .map { (summary, label) ->
+                            AppListModel(
+                                summary, label,
+                                packageNameToRuleCount.getOrDefault(summary.packageName, 0)
+                            )
+                        }
+                    loaded += models
+                    val progress = 100 * count.addAndGet(models.size) / size
+                    val now = System.currentTimeMillis()
+                    val last = lastReportMillis.get()
+                    if (l != null && now - last >= PROGRESS_INTERVAL_MILLIS &&
+                        lastReportMillis.compareAndSet(last, now)
+                    ) {
+                        l.onProgress(progress, loaded.toList())
+                    }
+                    models
+                }
+            }.awaitAll().flatten()
+        }
+    }
+
+    private fun CoroutineScope.loadChunk(
+        binderViewModel: BinderViewModel, appInfoCache: AppInfoCache, chunk: List<PackageSummary>
+    ): List<Pair<PackageSummary, String>> {
+        val missing = chunk.filter {
+            appInfoCache.peekLabel(it.packageName, it.lastUpdateTime) == null ||
+                    !appInfoCache.hasIcon(it.packageName, it.lastUpdateTime)
+        }
+        val packageInfos = if (missing.isEmpty()) {
+            emptyMap()
+        } else {
+            binderViewModel.getPackageInfos(missing.map { it.packageName }.toTypedArray())
+                .associateBy { it.packageName }
+        }
+        return chunk.map { summary ->
             ensureActive()
-            l?.onProgress(100 * count.incrementAndGet() / size)
-            AppListModel(
-                pi,
-                pm.getApplicationLabel(pi.applicationInfo).toString(),
-                packageNameToRuleCount.getOrDefault(pi.packageName, 0),
-            )
+            val pi = packageInfos[summary.packageName]
+            // Cache the icon now, the list loads icons of summaries from the cache only.
+            pi?.let { appInfoCache.getIcon(it) }
+            val label = pi?.let { appInfoCache.getLabel(it) }
+                ?: appInfoCache.peekLabel(summary.packageName, summary.lastUpdateTime)
+                ?: summary.packageName
+            summary to label
         }
     }
 
     suspend fun update(old: List<AppListModel>, binderViewModel: BinderViewModel) =
-        withContext(defaultDispatcher) {
+        withContext(dispatcher) {
             val packageNameToRuleCount =
                 fetchRuleCount(Templates(binderViewModel.readSp(R.xml.template_preferences)))
+            binderViewModel.loadPackageUsageTimes()
             old.map {
                 it.copy(
-                    ruleCount = packageNameToRuleCount.getOrDefault(it.packageInfo.packageName, 0)
+                    ruleCount = packageNameToRuleCount.getOrDefault(it.summary.packageName, 0)
                 )
             }
         }
 
     interface ProgressListener {
-        fun onProgress(progress: Int)
+        /**
+         * @param loaded the apps loaded so far, in no particular order.
+         */
+        fun onProgress(progress: Int, loaded: List<AppListModel>)
+    }
+
+    companion object {
+        private const val CHUNK_SIZE = 32
+        private const val PROGRESS_INTERVAL_MILLIS = 100L
     }
 }
@@ -16,13 +16,19 @@
 
 package me.gm.cleaner.plugin.ui.module.appmanagement
 
-import android.content.pm.PackageInfo
+import me.gm.cleaner.plugin.model.PackageSummary
 
 data class AppListModel(
-    val packageInfo: PackageInfo,
+    val summary: PackageSummary,
     val label: String,
     val ruleCount: Int,
 ) {
+    private val lowercaseLabel = label.lowercase()
+    private val lowercasePackageName = summary.packageName.lowercase()
+
+    /** @param lowercaseQuery the query in lower case. */
+    fun matches(lowercaseQuery: String): Boolean =
+        lowercaseLabel.contains(lowercaseQuery) || lowercasePackageName.contains(lowercaseQuery)
 
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
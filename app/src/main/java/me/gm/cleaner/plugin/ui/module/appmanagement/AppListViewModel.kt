@@ -17,22 +17,27 @@
 package me.gm.cleaner.plugin.ui.module.appmanagement
 
 import android.app.Application
-import android.content.pm.ApplicationInfo
+import android.content.pm.PackageInfo
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import me.gm.cleaner.plugin.dao.RootPreferences
 import me.gm.cleaner.plugin.dao.RootPreferences.SORT_BY_APP_NAME
 import me.gm.cleaner.plugin.dao.RootPreferences.SORT_BY_UPDATE_TIME
 import me.gm.cleaner.plugin.ktx.getValue
 import me.gm.cleaner.plugin.ktx.setValue
+import me.gm.cleaner.plugin.ui.module.AppInfoCache
 import me.gm.cleaner.plugin.ui.module.BinderViewModel
-import me.gm.cleaner.plugin.util.collatorComparator
+import me.gm.cleaner.plugin.util.CollationKeys
+import java.util.Locale
 
 class AppListViewModel(
     application: Application,
@@ -54,56 +59,96 @@ class AppListViewModel(
             RootPreferences.sortByFlowable.asFlow(),
             RootPreferences.ruleCountFlowable.asFlow(),
         ) { apps, isSearching, queryText, isHideSystemApp, sortBy, ruleCount ->
+            val list = arrange(
+                apps.list, isSearching, queryText, isHideSystemApp, sortBy, ruleCount
+            )
             when (apps) {
-                is AppListState.Loading -> AppListState.Loading(apps.progress)
-                is AppListState.Done -> {
-                    var sequence = apps.list.asSequence()
-                    if (isHideSystemApp) {
-                        sequence = sequence.filter {
-                            it.packageInfo.applicationInfo.flags and ApplicationInfo.FLAG_SYSTEM == 0
-                        }
-                    }
-                    if (isSearching) {
-                        sequence = sequence.filter {
-                            it.label.contains(queryText, true) ||
-                                    it.packageInfo.packageName.contains(queryText, true)
-                        }
-                    }
-                    sequence = when (sortBy) {
-                        SORT_BY_APP_NAME -> {
-                            sequence.sortedWith(collatorComparator { it.label })
-                        }
-
-                        SORT_BY_UPDATE_TIME -> sequence.sortedBy {
-                            -it.packageInfo.lastUpdateTime
-                        }
-
-                        else -> throw IllegalArgumentException()
-                    }
-                    if (ruleCount) {
-                        sequence = sequence.sortedBy { -it.ruleCount }
-                    }
-                    AppListState.Done(sequence.toList())
+                is AppListState.Loading -> AppListState.Loading(apps.progress, list)
+                is AppListState.Done -> AppListState.Done(list)
+            }
+        }.flowOn(Dispatchers.Default)
+
+    /**
+     * Collation keys of the labels, kept across loads as the list is sorted by label over and
+     * over. Made again when the locale changes, as the view model outlives the configuration.
+     */
+    private var collationKeys = CollationKeys(Locale.getDefault())
+
+    /** Sorted lists of the apps last arranged, by sort order and visibility of system apps. */
+    private var sortedLists = SortedLists(emptyList(), collationKeys)
+
+    /** The last search, refined searches narrow its result instead of the sorted list. */
+    private var lastSearch: Search? = null
+
+    private class SortedLists(val apps: List<AppListModel>, val collationKeys: CollationKeys) {
+        private val lists = mutableMapOf<Triple<Int, Boolean, Boolean>, List<AppListModel>>()
+
+        fun get(sortBy: Int, ruleCount: Boolean, isHideSystemApp: Boolean) =
+            lists.getOrPut(Triple(sortBy, ruleCount, isHideSystemApp)) {
+                var comparator = when (sortBy) {
+                    SORT_BY_APP_NAME -> compareBy<AppListModel> { collationKeys.of(it.label) }
+                    SORT_BY_UPDATE_TIME -> compareByDescending { it.summary.lastUpdateTime }
+                    else -> throw IllegalArgumentException()
                 }
+                if (ruleCount) {
+                    comparator = compareByDescending<AppListModel> { it.ruleCount }
+                        .then(comparator)
+                }
+                apps.filter { !isHideSystemApp || !it.summary.isSystemApp }
+                    .sortedWith(comparator)
             }
+    }
+
+    private class Search(
+        val base: List<AppListModel>, val query: String, val result: List<AppListModel>
+    )
+
+    @Synchronized
+    private fun arrange(
+        list: List<AppListModel>, isSearching: Boolean, queryText: String,
+        isHideSystemApp: Boolean, sortBy: Int, ruleCount: Boolean
+    ): List<AppListModel> {
+        val locale = Locale.getDefault()
+        if (collationKeys.locale != locale) {
+            collationKeys = CollationKeys(locale)
+        }
+        if (sortedLists.apps !== list || sortedLists.collationKeys !== collationKeys) {
+            sortedLists = SortedLists(list, collationKeys)
+        }
+        val base = sortedLists.get(sortBy, ruleCount, isHideSystemApp)
+        if (!isSearching || queryText.isEmpty()) {
+            return base
         }
+        val query = queryText.lowercase()
+        val previous = lastSearch
+        val candidates = if (previous != null && previous.base === base &&
+            query.startsWith(previous.query)
+        ) previous.result else base
+        val result = candidates.filter { it.matches(query) }
+        lastSearch = Search(base, query, result)
+        return result
+    }
 
     fun load(
         l: AppListLoader.ProgressListener? = object : AppListLoader.ProgressListener {
-            override fun onProgress(progress: Int) {
-                _appsFlow.value = AppListState.Loading(progress)
+            override fun onProgress(progress: Int, loaded: List<AppListModel>) {
+                _appsFlow.value = AppListState.Loading(progress, loaded)
             }
         }
     ) {
         viewModelScope.launch {
             _appsFlow.value = AppListState.Loading(0)
             val list = AppListLoader().load(
-                binderViewModel, getApplication<Application>().packageManager, l
+                binderViewModel, AppInfoCache.from(getApplication()), l
             )
             _appsFlow.value = AppListState.Done(list)
         }
     }
 
+    /** The app page needs the full PackageInfo, the list only has summaries. */
+    suspend fun loadPackageInfo(packageName: String): PackageInfo? =
+        withContext(Dispatchers.IO) { binderViewModel.getPackageInfo(packageName) }
+
     fun update() {
         viewModelScope.launch {
             if (!isLoading) {
@@ -133,8 +178,14 @@ class AppListViewModel(
 }
 
 sealed class AppListState {
-    data class Loading(val progress: Int) : AppListState()
-    data class Done(val list: List<AppListModel>) : AppListState()
+    abstract val list: List<AppListModel>
+
+    /** [list] holds the apps loaded so far. */
+    data class Loading(
+        val progress: Int, override val list: List<AppListModel> = emptyList()
+    ) : AppListState()
+
+    data class Done(override val list: List<AppListModel>) : AppListState()
 }
 
 fun <T1, T2, T3, T4, T5, T6, R> combine(
@@ -23,6 +23,7 @@ import android.view.ViewGroup
 import androidx.fragment.app.setFragmentResultListener
 import androidx.navigation.fragment.FragmentNavigatorExtras
 import androidx.navigation.fragment.findNavController
+import androidx.preference.ListPreference
 import androidx.preference.Preference
 import androidx.preference.PreferenceViewHolder
 import androidx.preference.SwitchPreferenceCompat
@@ -43,6 +44,21 @@ class SettingsFragment : AbsSettingsFragment() {
         val usageRecord = getString(R.string.usage_record_key)
         findPreference<SwitchPreferenceCompat>(usageRecord)?.isChecked =
             remoteSp.getBoolean(usageRecord, true)
+        val sqlPushdown = getString(R.string.sql_pushdown_key)
+        findPreference<SwitchPreferenceCompat>(sqlPushdown)?.isChecked =
+            remoteSp.getBoolean(sqlPushdown, false)
+        listOf(
+            R.string.usage_record_ttl_key, R.string.usage_record_size_cap_key,
+            R.string.usage_record_overflow_key
+        ).forEach {
+            val key = getString(it)
+            val preference = findPreference<ListPreference>(key)
+            remoteSp.getString(key, null)?.let { value -> preference?.value = value }
+        }
+        findPreference<Preference>(getString(R.string.usage_record_queue_key))?.let {
+            val (depth, capacity, dropped) = binderViewModel.getRecordQueueStats()
+            it.summary = getString(R.string.usage_record_queue_summary, depth, capacity, dropped)
+        }
     }
 
     override fun onCreateView(
@@ -31,6 +31,7 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
+import me.gm.cleaner.plugin.ui.module.AppInfoCache
 import me.gm.cleaner.plugin.util.collatorComparator
 import java.util.Arrays
 import java.util.function.Consumer
@@ -52,10 +53,10 @@ class AppListMultiSelectListPreference @JvmOverloads constructor(
     fun loadApps(applistSupplier: Supplier<List<PackageInfo>>): AppListMultiSelectListPreference {
         lifecycleScope.launch {
             mutex.withLock {
-                val pm = context.packageManager
+                val appInfoCache = AppInfoCache.from(context)
                 packageNameToLabel = withContext(Dispatchers.Default) {
                     applistSupplier.get()
-                        .map { it.packageName to pm.getApplicationLabel(it.applicationInfo) }
+                        .map { it.packageName to appInfoCache.getLabel(it) }
                         .sortedWith(collatorComparator { it.second.toString() })
                 }
                 liftSelected()
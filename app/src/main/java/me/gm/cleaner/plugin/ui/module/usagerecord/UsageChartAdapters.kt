@@ -0,0 +1,116 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.ui.module.usagerecord
+
+import android.icu.text.DateFormat
+import android.view.LayoutInflater
+import android.view.ViewGroup
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListAdapter
+import androidx.recyclerview.widget.RecyclerView
+import com.bumptech.glide.Glide
+import me.gm.cleaner.plugin.R
+import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_DELETE
+import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_INSERT
+import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_QUERY
+import me.gm.cleaner.plugin.databinding.UsagechartHeaderBinding
+import me.gm.cleaner.plugin.databinding.UsagerecordItemBinding
+import me.gm.cleaner.plugin.ktx.DividerViewHolder
+import java.util.Date
+import java.util.Locale
+
+class UsageChartHeaderAdapter(private val fragment: UsageChartFragment) :
+    RecyclerView.Adapter<UsageChartHeaderAdapter.ViewHolder>() {
+    private var state: UsageChartState.Done? = null
+    private var granularity = UsageChartGranularity.DAY
+
+    fun submit(state: UsageChartState.Done, granularity: UsageChartGranularity) {
+        this.state = state
+        this.granularity = granularity
+        notifyItemChanged(0)
+    }
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder =
+        ViewHolder(UsagechartHeaderBinding.inflate(LayoutInflater.from(parent.context)))
+
+    override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+        val binding = holder.binding
+        val state = state ?: return
+        val skeleton = if (granularity == UsageChartGranularity.HOUR) {
+            DateFormat.HOUR
+        } else {
+            DateFormat.NUM_MONTH_DAY
+        }
+        val format = DateFormat.getInstanceForSkeleton(skeleton, Locale.getDefault())
+        binding.chart.setData(
+            state.bucketStart.map { format.format(Date(it)) }, state.totals, state.intercepted
+        )
+        binding.summary.text = fragment.getString(
+            R.string.usage_chart_summary, state.totals.sum(), state.intercepted.sum()
+        )
+    }
+
+    override fun getItemCount(): Int = 1
+
+    class ViewHolder(val binding: UsagechartHeaderBinding) : DividerViewHolder(binding.root) {
+        init {
+            isDividerAllowedBelow = true
+        }
+    }
+}
+
+class UsageChartPackageAdapter(private val fragment: UsageChartFragment) :
+    ListAdapter<PackageUsageSummary, UsageChartPackageAdapter.ViewHolder>(CALLBACK) {
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int) =
+        ViewHolder(UsagerecordItemBinding.inflate(LayoutInflater.from(parent.context)))
+
+    override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+        val binding = holder.binding
+        val item = getItem(position)
+        Glide.with(fragment)
+            .load(item.packageInfo)
+            .into(binding.icon)
+        binding.title.text = item.label ?: item.packageName
+        binding.operation.text = item.count.toString()
+        binding.text.text = arrayOf(
+            OP_QUERY to R.string.query_times,
+            OP_INSERT to R.string.insert_times,
+            OP_DELETE to R.string.delete_times,
+        ).mapNotNull { (op, resId) ->
+            if (item.counts[op] == 0) null else fragment.getString(resId, item.counts[op])
+        }.joinToString(fragment.getString(R.string.delimiter))
+        binding.suffix.text = if (item.interceptedCount > 0)
+            fragment.getString(R.string.intercepted_times, item.interceptedCount) else null
+    }
+
+    class ViewHolder(val binding: UsagerecordItemBinding) : RecyclerView.ViewHolder(binding.root)
+
+    companion object {
+        private val CALLBACK = object : DiffUtil.ItemCallback<PackageUsageSummary>() {
+            override fun areItemsTheSame(
+                oldItem: PackageUsageSummary, newItem: PackageUsageSummary
+            ): Boolean = oldItem.packageName == newItem.packageName
+
+            override fun areContentsTheSame(
+                oldItem: PackageUsageSummary, newItem: PackageUsageSummary
+            ): Boolean = oldItem.counts.contentEquals(newItem.counts) &&
+                    oldItem.interceptedCount == newItem.interceptedCount &&
+                    oldItem.label == newItem.label
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.ui.module.usagerecord
+
+import android.annotation.SuppressLint
+import android.app.Application
+import android.os.Bundle
+import android.view.LayoutInflater
+import android.view.Menu
+import android.view.MenuInflater
+import android.view.MenuItem
+import android.view.View
+import android.view.ViewGroup
+import androidx.fragment.app.viewModels
+import androidx.lifecycle.asLiveData
+import androidx.navigation.fragment.findNavController
+import androidx.recyclerview.widget.ConcatAdapter
+import androidx.recyclerview.widget.GridLayoutManager
+import me.gm.cleaner.plugin.IMediaChangeObserver
+import me.gm.cleaner.plugin.R
+import me.gm.cleaner.plugin.databinding.UsagerecordFragmentBinding
+import me.gm.cleaner.plugin.ktx.DividerDecoration
+import me.gm.cleaner.plugin.ktx.addOnExitListener
+import me.gm.cleaner.plugin.ktx.fitsSystemWindowInsets
+import me.gm.cleaner.plugin.ktx.overScrollIfContentScrollsPersistent
+import me.gm.cleaner.plugin.ui.module.ModuleFragment
+import rikka.recyclerview.fixEdgeEffect
+import java.lang.ref.WeakReference
+
+class UsageChartFragment : ModuleFragment() {
+    private val viewModel: UsageChartViewModel by viewModels(
+        factoryProducer = {
+            UsageChartViewModel.provideFactory(
+                requireContext().applicationContext as Application,
+                binderViewModel
+            )
+        }
+    )
+    private val mediaChangeObserver = object : IMediaChangeObserver.Stub() {
+        override fun onChange() {
+            viewModel.reload()
+        }
+    }
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        setHasOptionsMenu(true)
+    }
+
+    @SuppressLint("UseCompatLoadingForDrawables")
+    override fun onCreateView(
+        inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?
+    ): View {
+        if (!binderViewModel.pingBinder()) {
+            return super.onCreateView(inflater, container, savedInstanceState)
+        }
+        val binding = UsagerecordFragmentBinding.inflate(layoutInflater)
+
+        val headerAdapter = UsageChartHeaderAdapter(this)
+        val packageAdapter = UsageChartPackageAdapter(this)
+        val list = binding.list
+        liftOnScrollTargetView = WeakReference(list)
+        list.adapter = ConcatAdapter(headerAdapter, packageAdapter)
+        list.layoutManager = GridLayoutManager(requireContext(), 1)
+        list.setHasFixedSize(true)
+        list.fixEdgeEffect(false)
+        list.overScrollIfContentScrollsPersistent()
+        list.fitsSystemWindowInsets()
+        list.addItemDecoration(DividerDecoration(list).apply {
+            setDivider(resources.getDrawable(R.drawable.list_divider_material, null))
+            setAllowDividerAfterLastItem(false)
+        })
+
+        viewModel.chartFlow.asLiveData().observe(viewLifecycleOwner) { chart ->
+            when (chart) {
+                is UsageChartState.Loading -> binding.progress.show()
+                is UsageChartState.Done -> {
+                    headerAdapter.submit(chart, viewModel.granularity)
+                    packageAdapter.submitList(chart.packages) {
+                        binding.progress.hide()
+                    }
+                }
+            }
+        }
+
+        binderViewModel.registerMediaChangeObserver(mediaChangeObserver)
+        findNavController().addOnExitListener { _, _, _ ->
+            binderViewModel.unregisterMediaChangeObserver(mediaChangeObserver)
+        }
+        return binding.root
+    }
+
+    override fun onCreateOptionsMenu(menu: Menu, inflater: MenuInflater) {
+        super.onCreateOptionsMenu(menu, inflater)
+        if (!binderViewModel.pingBinder()) {
+            return
+        }
+        inflater.inflate(R.menu.usagechart_toolbar, menu)
+        when (viewModel.granularity) {
+            UsageChartGranularity.HOUR -> menu.findItem(R.id.menu_granularity_hour)
+            UsageChartGranularity.DAY -> menu.findItem(R.id.menu_granularity_day)
+            UsageChartGranularity.WEEK -> menu.findItem(R.id.menu_granularity_week)
+        }.isChecked = true
+    }
+
+    override fun onOptionsItemSelected(item: MenuItem): Boolean {
+        viewModel.granularity = when (item.itemId) {
+            R.id.menu_granularity_hour -> UsageChartGranularity.HOUR
+            R.id.menu_granularity_day -> UsageChartGranularity.DAY
+            R.id.menu_granularity_week -> UsageChartGranularity.WEEK
+            else -> return super.onOptionsItemSelected(item)
+        }
+        item.isChecked = true
+        return true
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.ui.module.usagerecord
+
+import android.app.Application
+import android.content.pm.PackageInfo
+import androidx.lifecycle.AndroidViewModel
+import androidx.lifecycle.ViewModel
+import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import me.gm.cleaner.plugin.dao.DailyUsage
+import me.gm.cleaner.plugin.dao.HourlyUsage
+import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_DELETE
+import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_INSERT
+import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_QUERY
+import me.gm.cleaner.plugin.dao.RootPreferences
+import me.gm.cleaner.plugin.ktx.getValue
+import me.gm.cleaner.plugin.ktx.setValue
+import me.gm.cleaner.plugin.ui.module.BinderViewModel
+import java.util.Calendar
+
+class UsageChartViewModel(
+    application: Application,
+    private val binderViewModel: BinderViewModel,
+) : AndroidViewModel(application) {
+    private val _granularityFlow = MutableStateFlow(UsageChartGranularity.DAY)
+    var granularity: UsageChartGranularity by _granularityFlow
+    private val _chartFlow = MutableStateFlow<UsageChartState>(UsageChartState.Loading)
+    val chartFlow: StateFlow<UsageChartState>
+        get() = _chartFlow
+
+    /**
+     * Find the start of the first bucket so that the last one contains now. Buckets are aligned
+     * to the local hour, day or week, but have a fixed length, so they drift by an hour across
+     * a DST change.
+     */
+    private fun calculateOrigin(granularity: UsageChartGranularity): Long =
+        with(Calendar.getInstance()) {
+            set(Calendar.MINUTE, 0)
+            set(Calendar.SECOND, 0)
+            set(Calendar.MILLISECOND, 0)
+            if (granularity != UsageChartGranularity.HOUR) {
+                set(Calendar.HOUR_OF_DAY, 0)
+            }
+            if (granularity == UsageChartGranularity.WEEK) {
+                set(Calendar.DAY_OF_WEEK, firstDayOfWeek)
+            }
+            timeInMillis - (granularity.bucketCount - 1) * granularity.bucketMillis
+        }
+
+    private suspend fun load(
+        granularity: UsageChartGranularity,
+        isHideQuery: Boolean, isHideInsert: Boolean, isHideDelete: Boolean
+    ): UsageChartState = withContext(Dispatchers.IO) {
+        val origin = calculateOrigin(granularity)
+        val bucketMillis = granularity.bucketMillis
+        val buckets = binderViewModel.getUsageBuckets(
+            origin, origin + granularity.bucketCount * bucketMillis, bucketMillis
+        )
+        val totals = IntArray(granularity.bucketCount)
+        val intercepted = IntArray(granularity.bucketCount)
+        val packages = Array(buckets.packageNames.size) {
+            PackageUsageSummary(buckets.packageNames[it])
+        }
+        for (i in 0 until buckets.size()) {
+            val operation = buckets.operation[i]
+            if (operation == OP_QUERY && isHideQuery || operation == OP_INSERT && isHideInsert ||
+                operation == OP_DELETE && isHideDelete
+            ) {
+                continue
+            }
+            val index = ((buckets.bucketStart[i] - origin) / bucketMillis).toInt()
+            totals[index] += buckets.count[i]
+            intercepted[index] += buckets.interceptedCount[i]
+            val summary = packages[buckets.packageIndex[i]]
+            summary.counts[operation] += buckets.count[i]
+            summary.interceptedCount += buckets.interceptedCount[i]
+        }
+        val used = packages.filter { it.count > 0 }
+        val metadata = binderViewModel.getPackageMetadata(used.map { it.packageName })
+        val summaries = used
+            .onEach {
+                val info = metadata[it.packageName] ?: return@onEach
+                it.packageInfo = info.packageInfo
+                it.label = info.label
+            }
+            .sortedByDescending { it.count }
+        UsageChartState.Done(
+            LongArray(granularity.bucketCount) { origin + it * bucketMillis },
+            totals, intercepted, summaries
+        )
+    }
+
+    fun reload() {
+        viewModelScope.launch {
+            _chartFlow.value = load(
+                granularity,
+                RootPreferences.isHideQueryFlowable.value,
+                RootPreferences.isHideInsertFlowable.value,
+                RootPreferences.isHideDeleteFlowable.value
+            )
+        }
+    }
+
+    init {
+        viewModelScope.launch {
+            combine(
+                _granularityFlow,
+                RootPreferences.isHideQueryFlowable.asFlow(),
+                RootPreferences.isHideInsertFlowable.asFlow(),
+                RootPreferences.isHideDeleteFlowable.asFlow(),
+            ) { granularity, isHideQuery, isHideInsert, isHideDelete ->
+                _chartFlow.value = UsageChartState.Loading
+                load(granularity, isHideQuery, isHideInsert, isHideDelete)
+            }.collect {
+                _chartFlow.value = it
+            }
+        }
+    }
+
+    companion object {
+        fun provideFactory(
+            application: Application, binderViewModel: BinderViewModel
+        ): ViewModelProvider.Factory = object : ViewModelProvider.Factory {
+            @Suppress("UNCHECKED_CAST")
+            override fun <T : ViewModel> create(modelClass: Class<T>): T {
+                return UsageChartViewModel(application, binderViewModel) as T
+            }
+        }
+    }
+}
+
+enum class UsageChartGranularity(val bucketMillis: Long, val bucketCount: Int) {
+    HOUR(HourlyUsage.HOUR_MILLIS, 24),
+    DAY(DailyUsage.DAY_MILLIS, 30),
+    WEEK(7 * DailyUsage.DAY_MILLIS, 12),
+}
+
+data class PackageUsageSummary(val packageName: String) {
+    /** Indexed by operation. */
+    val counts = IntArray(3)
+    var interceptedCount = 0
+    var packageInfo: PackageInfo? = null
+    var label: String? = null
+
+    val count: Int
+        get() = counts.sum()
+}
+
+sealed class UsageChartState {
+    data object Loading : UsageChartState()
+    data class Done(
+        val bucketStart: LongArray,
+        val totals: IntArray,
+        val intercepted: IntArray,
+        val packages: List<PackageUsageSummary>,
+    ) : UsageChartState()
+}
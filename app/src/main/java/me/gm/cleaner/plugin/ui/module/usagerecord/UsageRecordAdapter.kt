@@ -27,6 +27,7 @@ import android.widget.ArrayAdapter
 import androidx.appcompat.widget.ListPopupWindow
 import androidx.core.text.buildSpannedString
 import androidx.core.text.strikeThrough
+import androidx.paging.PagingDataAdapter
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
@@ -39,18 +40,58 @@ import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_QUERY
 import me.gm.cleaner.plugin.dao.MediaProviderRecord
 import me.gm.cleaner.plugin.databinding.UsagerecordItemBinding
 
-class UsageRecordAdapter(private val fragment: UsageRecordFragment) :
-    ListAdapter<MediaProviderRecord, UsageRecordAdapter.ViewHolder>(CALLBACK) {
+class UsageRecordAdapter(fragment: UsageRecordFragment) :
+    PagingDataAdapter<MediaProviderRecord, UsageRecordAdapter.ViewHolder>(CALLBACK) {
+    private val binder = UsageRecordBinder(fragment)
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int) =
+        binder.createViewHolder(parent)
+
+    override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+        binder.bind(holder, getItem(position) ?: return)
+    }
+
+    class ViewHolder(val binding: UsagerecordItemBinding) : RecyclerView.ViewHolder(binding.root)
+
+    companion object {
+        val CALLBACK = object : DiffUtil.ItemCallback<MediaProviderRecord>() {
+            override fun areItemsTheSame(
+                oldItem: MediaProviderRecord, newItem: MediaProviderRecord
+            ): Boolean = oldItem.id == newItem.id
+
+            override fun areContentsTheSame(
+                oldItem: MediaProviderRecord, newItem: MediaProviderRecord
+            ): Boolean = oldItem == newItem
+        }
+    }
+}
+
+/**
+ * Shows the records written after the pages of [UsageRecordAdapter] were loaded, above them.
+ */
+class LiveUsageRecordAdapter(fragment: UsageRecordFragment) :
+    ListAdapter<MediaProviderRecord, UsageRecordAdapter.ViewHolder>(UsageRecordAdapter.CALLBACK) {
+    private val binder = UsageRecordBinder(fragment)
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int) =
+        binder.createViewHolder(parent)
+
+    override fun onBindViewHolder(holder: UsageRecordAdapter.ViewHolder, position: Int) {
+        binder.bind(holder, getItem(position))
+    }
+}
+
+private class UsageRecordBinder(private val fragment: UsageRecordFragment) {
     private val context = fragment.requireContext()
     private val clipboardManager by lazy { context.getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager }
 
-    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int) =
-        ViewHolder(UsagerecordItemBinding.inflate(LayoutInflater.from(parent.context)))
+    fun createViewHolder(parent: ViewGroup) = UsageRecordAdapter.ViewHolder(
+        UsagerecordItemBinding.inflate(LayoutInflater.from(parent.context))
+    )
 
     @SuppressLint("SetTextI18n")
-    override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+    fun bind(holder: UsageRecordAdapter.ViewHolder, record: MediaProviderRecord) {
         val binding = holder.binding
-        val record = getItem(position)
         Glide.with(fragment)
             .load(record.packageInfo)
             .into(binding.icon)
@@ -60,7 +101,8 @@ class UsageRecordAdapter(private val fragment: UsageRecordFragment) :
             OP_INSERT -> fragment.getString(R.string.inserted_at)
             OP_DELETE -> fragment.getString(R.string.deleted_at)
             else -> throw IllegalArgumentException()
-        } + formatDateTime(record.timeMillis)
+        } + formatDateTime(record.timeMillis) + if (record.repeatCount > 1)
+            fragment.getString(R.string.repeat_count, record.repeatCount) else ""
         binding.operation.text = if (record.intercepted.any { it })
             buildSpannedString { strikeThrough { append(operation) } } else operation
         val more = record.data.size - 1
@@ -95,18 +137,4 @@ class UsageRecordAdapter(private val fragment: UsageRecordFragment) :
                 DateUtils.FORMAT_ABBREV_ALL or DateUtils.FORMAT_SHOW_TIME
         return DateUtils.formatDateTime(context, timeMillis, flags)
     }
-
-    class ViewHolder(val binding: UsagerecordItemBinding) : RecyclerView.ViewHolder(binding.root)
-
-    companion object {
-        private val CALLBACK = object : DiffUtil.ItemCallback<MediaProviderRecord>() {
-            override fun areItemsTheSame(
-                oldItem: MediaProviderRecord, newItem: MediaProviderRecord
-            ): Boolean = oldItem.timeMillis == newItem.timeMillis
-
-            override fun areContentsTheSame(
-                oldItem: MediaProviderRecord, newItem: MediaProviderRecord
-            ): Boolean = oldItem == newItem
-        }
-    }
 }
@@ -18,6 +18,8 @@ package me.gm.cleaner.plugin.ui.module.usagerecord
 
 import android.app.Application
 import android.icu.text.DateFormat
+import android.icu.text.DateIntervalFormat
+import android.icu.util.DateInterval
 import android.icu.util.TimeZone
 import android.os.Bundle
 import android.view.LayoutInflater
@@ -30,12 +32,13 @@ import androidx.appcompat.widget.SearchView
 import androidx.fragment.app.viewModels
 import androidx.lifecycle.asLiveData
 import androidx.navigation.fragment.findNavController
+import androidx.paging.LoadState
+import androidx.recyclerview.widget.ConcatAdapter
 import androidx.recyclerview.widget.GridLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.google.android.material.datepicker.CalendarConstraints
 import com.google.android.material.datepicker.DateValidatorPointBackward
 import com.google.android.material.datepicker.MaterialDatePicker
-import me.gm.cleaner.plugin.IMediaChangeObserver
 import me.gm.cleaner.plugin.R
 import me.gm.cleaner.plugin.dao.RootPreferences
 import me.gm.cleaner.plugin.databinding.UsagerecordFragmentBinding
@@ -48,7 +51,7 @@ import me.gm.cleaner.plugin.widget.FixQueryChangeSearchView
 import me.zhanghai.android.fastscroll.FastScrollerBuilder
 import rikka.recyclerview.fixEdgeEffect
 import java.lang.ref.WeakReference
-import java.util.Date
+import java.text.FieldPosition
 import java.util.Locale
 
 class UsageRecordFragment : ModuleFragment() {
@@ -60,11 +63,6 @@ class UsageRecordFragment : ModuleFragment() {
             )
         }
     )
-    private val mediaChangeObserver = object : IMediaChangeObserver.Stub() {
-        override fun onChange() {
-            viewModel.reload()
-        }
-    }
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -79,12 +77,13 @@ class UsageRecordFragment : ModuleFragment() {
         }
         val binding = UsagerecordFragmentBinding.inflate(layoutInflater)
 
+        val liveAdapter = LiveUsageRecordAdapter(this)
         val adapter = UsageRecordAdapter(this).apply {
             stateRestorationPolicy = RecyclerView.Adapter.StateRestorationPolicy.PREVENT_WHEN_EMPTY
         }
         val list = binding.list
         liftOnScrollTargetView = WeakReference(list)
-        list.adapter = adapter
+        list.adapter = ConcatAdapter(liveAdapter, adapter)
         list.layoutManager = GridLayoutManager(requireContext(), 1)
         list.setHasFixedSize(true)
         val fastScroller = FastScrollerBuilder(list)
@@ -95,22 +94,26 @@ class UsageRecordFragment : ModuleFragment() {
         list.fitsSystemWindowInsets(fastScroller)
 
         viewModel.recordsFlow.asLiveData().observe(viewLifecycleOwner) { records ->
-            when (records) {
-                is UsageRecordState.Loading -> binding.progress.show()
-                is UsageRecordState.Done -> adapter.submitList(records.list) {
-                    binding.progress.hide()
-                    supportActionBar?.subtitle = DateFormat.getInstanceForSkeleton(
-                        DateFormat.YEAR_ABBR_MONTH_DAY, Locale.getDefault()
-                    ).apply {
-                        timeZone = TimeZone.getTimeZone("UTC")
-                    }.format(Date(viewModel.calendar.timeInMillis))
-                }
+            adapter.submitData(viewLifecycleOwner.lifecycle, records)
+        }
+        viewModel.liveRecordsFlow.asLiveData().observe(viewLifecycleOwner) { records ->
+            liveAdapter.submitList(records)
+        }
+        adapter.addLoadStateListener { loadStates ->
+            if (loadStates.refresh is LoadState.Loading) {
+                binding.progress.show()
+            } else {
+                binding.progress.hide()
+                val (start, end) = viewModel.selectedRange
+                supportActionBar?.subtitle = DateIntervalFormat.getInstance(
+                    DateFormat.YEAR_ABBR_MONTH_DAY, Locale.getDefault()
+                ).apply {
+                    timeZone = TimeZone.getTimeZone("UTC")
+                }.format(DateInterval(start, end), StringBuffer(), FieldPosition(0))
             }
         }
 
-        binderViewModel.registerMediaChangeObserver(mediaChangeObserver)
         findNavController().addOnExitListener { _, _, _ ->
-            binderViewModel.unregisterMediaChangeObserver(mediaChangeObserver)
             supportActionBar?.subtitle = null
         }
         return binding.root
@@ -168,12 +171,13 @@ class UsageRecordFragment : ModuleFragment() {
                 val calendarConstraints = CalendarConstraints.Builder()
                     .setValidator(DateValidatorPointBackward.now())
                     .build()
-                val datePicker = MaterialDatePicker.Builder.datePicker()
+                val (start, end) = viewModel.selectedRange
+                val datePicker = MaterialDatePicker.Builder.dateRangePicker()
                     .setCalendarConstraints(calendarConstraints)
-                    .setSelection(viewModel.calendar.timeInMillis)
+                    .setSelection(androidx.core.util.Pair(start, end))
                     .build()
                 datePicker.addOnPositiveButtonClickListener { selection ->
-                    viewModel.selectedTime = selection
+                    viewModel.selectedRange = selection.first to selection.second
                 }
                 datePicker.show(childFragmentManager, null)
             }
@@ -196,6 +200,10 @@ class UsageRecordFragment : ModuleFragment() {
                 RootPreferences.isHideDeleteFlowable.value = isHideDelete
             }
 
+            R.id.menu_chart -> findNavController().navigate(
+                UsageRecordFragmentDirections.actionUsageRecordToUsageChart()
+            )
+
             R.id.menu_clear -> {
                 binderViewModel.clearAllTables()
                 viewModel.reload()
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.ui.module.usagerecord
+
+import android.os.RemoteException
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import me.gm.cleaner.plugin.dao.MediaProviderRecord
+import me.gm.cleaner.plugin.ui.module.BinderViewModel
+
+/**
+ * Pages through the records of a time range newest first. Each page is keyed by the time and id
+ * of the last record before it, so a page costs the same however deep into a busy range it is.
+ * With a [Search], only the matching records are paged through, found by the service's index.
+ * Otherwise [onRefresh] is called with the largest id of the first page once it is loaded.
+ */
+class UsageRecordPagingSource(
+    private val binderViewModel: BinderViewModel,
+    private val start: Long,
+    private val end: Long,
+    private val operations: IntArray,
+    private val search: Search?,
+    private val onRefresh: (newestId: Long) -> Unit,
+) : PagingSource<UsageRecordPagingSource.Key, MediaProviderRecord>() {
+    data class Key(val timeMillis: Long, val id: Long)
+
+    /**
+     * @param query words looked up in the paths.
+     * @param packageNames packages whose label matches the query.
+     */
+    data class Search(val query: String, val packageNames: List<String>)
+
+    override suspend fun load(
+        params: LoadParams<Key>
+    ): LoadResult<Key, MediaProviderRecord> = withContext(Dispatchers.IO) {
+        val key = params.key ?: Key(Long.MAX_VALUE, Long.MAX_VALUE)
+        // Where the next search page starts. Records behind the keys may be purged before they
+        // are read, the search must still go on past them.
+        var searchNextKey: Key? = null
+        val batch = try {
+            if (search == null) {
+                binderViewModel.readRecords(
+                    start, end, operations, key.timeMillis, key.id, params.loadSize
+                )
+            } else {
+                val keys = binderViewModel.searchRecordKeys(
+                    start, end, operations, search.query, search.packageNames, key.timeMillis,
+                    key.id, params.loadSize
+                )
+                if (keys.size() == 0) {
+                    return@withContext LoadResult.Page(emptyList(), null, null)
+                }
+                val last = keys.size() - 1
+                searchNextKey = Key(keys.timeMillis[last], keys.id[last])
+                binderViewModel.readRecordsById(keys.id)
+            }
+        } catch (e: RemoteException) {
+            return@withContext LoadResult.Error(e)
+        }
+        batch.read().use { reader ->
+            if (params.key == null && search == null) {
+                onRefresh((0 until reader.size).maxOfOrNull { reader.id(it) } ?: 0)
+            }
+            val packages = binderViewModel.getPackageMetadata(
+                (0 until reader.size).mapTo(HashSet()) { reader.packageName(it) }
+            )
+            val records = mutableListOf<MediaProviderRecord>()
+            for (i in 0 until reader.size) {
+                val metadata = packages[reader.packageName(i)] ?: continue
+                // Paths of the records skipped are never decoded.
+                records += reader.record(i).also {
+                    it.packageInfo = metadata.packageInfo
+                    it.label = metadata.label
+                }
+            }
+            val last = reader.size - 1
+            LoadResult.Page(
+                data = records,
+                prevKey = null,
+                nextKey = when {
+                    search != null -> searchNextKey
+                    last < 0 -> null
+                    else -> Key(reader.timeMillis(last), reader.id(last))
+                },
+            )
+        }
+    }
+
+    /** Always refresh from the newest record, that is where new records show up. */
+    override fun getRefreshKey(state: PagingState<Key, MediaProviderRecord>): Key? = null
+}
@@ -17,17 +17,27 @@
 package me.gm.cleaner.plugin.ui.module.usagerecord
 
 import android.app.Application
-import android.provider.MediaStore
+import android.os.RemoteException
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.viewModelScope
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
+import me.gm.cleaner.plugin.IRecordObserver
 import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_DELETE
 import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_INSERT
 import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_QUERY
@@ -35,6 +45,8 @@ import me.gm.cleaner.plugin.dao.MediaProviderRecord
 import me.gm.cleaner.plugin.dao.RootPreferences
 import me.gm.cleaner.plugin.ktx.getValue
 import me.gm.cleaner.plugin.ktx.setValue
+import me.gm.cleaner.plugin.model.RecordFilter
+import me.gm.cleaner.plugin.ui.module.AppInfoCache
 import me.gm.cleaner.plugin.ui.module.BinderViewModel
 import java.util.Calendar
 
@@ -46,42 +58,175 @@ class UsageRecordViewModel(
     var isSearching: Boolean by _isSearchingFlow
     private val _queryTextFlow: MutableStateFlow<String> = MutableStateFlow("")
     var queryText: String by _queryTextFlow
-    private val _selectedTimeFlow: MutableStateFlow<Long> =
-        MutableStateFlow(System.currentTimeMillis())
-    var selectedTime: Long by _selectedTimeFlow
-    val calendar: Calendar = Calendar.getInstance()
-
-    private val _recordsFlow = MutableStateFlow<UsageRecordState>(UsageRecordState.Loading)
-    val recordsFlow =
-        combine(_recordsFlow, _isSearchingFlow, _queryTextFlow) { source, isSearching, queryText ->
-            when (source) {
-                is UsageRecordState.Loading -> UsageRecordState.Loading
-                is UsageRecordState.Done -> withContext(Dispatchers.Default) {
-                    var sequence = source.list.asSequence()
-                    if (isSearching) {
-                        sequence = sequence.filter {
-                            it.data.any { data -> data.contains(queryText, true) } ||
-                                    it.label?.contains(queryText, true) == true ||
-                                    it.packageName.contains(queryText, true)
-                        }
+
+    /** First and last selected day, both inclusive. */
+    private val _selectedRangeFlow: MutableStateFlow<Pair<Long, Long>> =
+        MutableStateFlow(System.currentTimeMillis().let { it to it })
+    var selectedRange: Pair<Long, Long> by _selectedRangeFlow
+    private val calendar: Calendar = Calendar.getInstance()
+
+    @Volatile
+    private var pagingSource: UsageRecordPagingSource? = null
+
+    /** Records written since the first page was loaded, newest first, shown above the pages. */
+    private val _liveRecordsFlow: MutableStateFlow<List<MediaProviderRecord>> =
+        MutableStateFlow(emptyList())
+    val liveRecordsFlow: StateFlow<List<MediaProviderRecord>> = _liveRecordsFlow
+
+    /** Registered with the filter of the current pages, replaced whenever they refresh. */
+    @Volatile
+    private var recordObserver: IRecordObserver? = null
+
+    private val isHideQueryFlow: StateFlow<Boolean> = RootPreferences.isHideQueryFlowable.asFlow()
+    private val isHideInsertFlow: StateFlow<Boolean> = RootPreferences.isHideInsertFlowable.asFlow()
+    private val isHideDeleteFlow: StateFlow<Boolean> = RootPreferences.isHideDeleteFlowable.asFlow()
+
+    private val operationsFlow: Flow<IntArray> = combine(
+        isHideQueryFlow,
+        isHideInsertFlow,
+        isHideDeleteFlow,
+    ) { isHideQuery, isHideInsert, isHideDelete ->
+        val operations = mutableListOf<Int>()
+        if (!isHideQuery) {
+            operations += OP_QUERY
+        }
+        if (!isHideInsert) {
+            operations += OP_INSERT
+        }
+        if (!isHideDelete) {
+            operations += OP_DELETE
+        }
+        operations.toIntArray()
+    }
+
+    private val searchQueryFlow: Flow<String?> =
+        combine(_isSearchingFlow, _queryTextFlow) { isSearching, queryText ->
+            queryText.trim().takeIf { isSearching && it.isNotEmpty() }
+        }.distinctUntilChanged()
+
+    /** Labels of the installed packages, loaded by the first search. */
+    @Volatile
+    private var installedLabels: Map<String, String>? = null
+
+    /**
+     * A search looks through all retained history with the service's index instead of the
+     * records of the selected days.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val recordsFlow: Flow<PagingData<MediaProviderRecord>> = combine(
+        _selectedRangeFlow, operationsFlow, searchQueryFlow
+    ) { selectedRange, operations, searchQuery ->
+        Triple(selectedRange, operations, searchQuery)
+    }.flatMapLatest { (selectedRange, operations, searchQuery) ->
+        val (start, end) = if (searchQuery == null) {
+            calculateSelectedTime(selectedRange)
+        } else {
+            0L to Long.MAX_VALUE
+        }
+        val search = searchQuery?.let {
+            UsageRecordPagingSource.Search(it, findPackagesLabelled(it))
+        }
+        if (search != null) {
+            // Matches of a search don't show up live.
+            observeRecords(null)
+        }
+        Pager(PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = false)) {
+            UsageRecordPagingSource(binderViewModel, start, end, operations, search) { newestId ->
+                observeRecords(RecordFilter(operations, null, start, end), newestId)
+            }.also { pagingSource = it }
+        }.flow
+    }.cachedIn(viewModelScope)
+
+    /**
+     * Drop the live records, which the refreshed pages include, and observe the records written
+     * after newestId that filter lets through. A null filter stops observing.
+     */
+    @Synchronized
+    private fun observeRecords(filter: RecordFilter?, newestId: Long = 0) {
+        recordObserver?.let { binderViewModel.unregisterRecordObserver(it) }
+        recordObserver = null
+        _liveRecordsFlow.value = emptyList()
+        if (filter == null) {
+            return
+        }
+        val observer = object : IRecordObserver.Stub() {
+            override fun onRecordsChanged(
+                appendedIds: LongArray, updatedIds: LongArray, sequence: Long
+            ) {
+                val observer = this
+                viewModelScope.launch(Dispatchers.IO) {
+                    if (recordObserver === observer) {
+                        applyRecordChanges(observer, appendedIds, updatedIds)
                     }
-                    UsageRecordState.Done(sequence.toList())
                 }
             }
         }
+        recordObserver = observer
+        binderViewModel.registerRecordObserver(observer, filter, newestId)
+    }
+
+    private fun applyRecordChanges(
+        observer: IRecordObserver, appendedIds: LongArray, updatedIds: LongArray
+    ) {
+        val liveIds = _liveRecordsFlow.value.mapTo(HashSet()) { it.id }
+        // Bumped records that aren't live are left as the pages show them.
+        val ids = appendedIds.filterNot { it in liveIds } + updatedIds.filter { it in liveIds }
+        if (ids.isEmpty()) {
+            return
+        }
+        val changed = try {
+            binderViewModel.readRecordsById(ids.toLongArray()).read().use { reader ->
+                val packages = binderViewModel.getPackageMetadata(
+                    (0 until reader.size).mapTo(HashSet()) { reader.packageName(it) }
+                )
+                (0 until reader.size).mapNotNull { i ->
+                    val metadata = packages[reader.packageName(i)] ?: return@mapNotNull null
+                    reader.record(i).also {
+                        it.packageInfo = metadata.packageInfo
+                        it.label = metadata.label
+                    }
+                }
+            }
+        } catch (e: RemoteException) {
+            return
+        }
+        _liveRecordsFlow.update { records ->
+            if (recordObserver !== observer) {
+                return@update records
+            }
+            // An id may be delivered again, keep the newest copy once.
+            (changed + records).distinctBy { it.id }
+                .sortedWith(compareByDescending<MediaProviderRecord> { it.timeMillis }
+                    .thenByDescending { it.id })
+        }
+    }
+
+    private suspend fun findPackagesLabelled(query: String): List<String> =
+        withContext(Dispatchers.IO) {
+            val labels = installedLabels ?: run {
+                val appInfoCache = AppInfoCache.from(getApplication())
+                binderViewModel.getInstalledPackages(0).associate {
+                    it.packageName to appInfoCache.getLabel(it)
+                }.also { installedLabels = it }
+            }
+            labels.filter { (packageName, label) ->
+                label.contains(query, true) || packageName.contains(query, true)
+            }.keys.toList()
+        }
 
     /**
-     * Find the start and the end time millis of a day.
-     * @param timeMillis any time millis in that day
+     * Find the start time millis of the first day and the end time millis of the last day.
+     * @param range any time millis in the first and the last day
      */
-    private fun calculateSelectedTime(timeMillis: Long): Pair<Long, Long> =
+    private fun calculateSelectedTime(range: Pair<Long, Long>): Pair<Long, Long> =
         with(calendar) {
-            timeInMillis = timeMillis
+            timeInMillis = range.first
             set(Calendar.HOUR_OF_DAY, 0)
             set(Calendar.MINUTE, 0)
             set(Calendar.SECOND, 0)
             set(Calendar.MILLISECOND, 0)
             val start = timeInMillis
+            timeInMillis = range.second
             set(Calendar.HOUR_OF_DAY, 23)
             set(Calendar.MINUTE, 59)
             set(Calendar.SECOND, 59)
@@ -90,87 +235,18 @@ class UsageRecordViewModel(
             return start to end
         }
 
-    private suspend inline fun queryRecord(
-        start: Long, end: Long, operations: List<Int>
-    ): List<MediaProviderRecord> = withContext(Dispatchers.IO) {
-        val projection = operations.map { it.toString() }.toTypedArray()
-        val selection = start.toString()
-        val sortOrder = end.toString()
-
-        getApplication<Application>().contentResolver.query(
-            MediaStore.Images.Media.INTERNAL_CONTENT_URI,
-            projection,
-            selection,
-            null,
-            sortOrder
-        )?.use { cursor ->
-            return@withContext MediaProviderRecord.convert(cursor)
-        }
-        return@withContext emptyList()
-    }
-
-    private suspend fun load(
-        start: Long, end: Long,
-        isHideQuery: Boolean, isHideInsert: Boolean, isHideDelete: Boolean
-    ): UsageRecordState {
-        val packageManager = getApplication<Application>().packageManager
-        val operations = mutableListOf<Int>()
-        if (!isHideQuery) {
-            operations += OP_QUERY
-        }
-        if (!isHideInsert) {
-            operations += OP_INSERT
-        }
-        if (!isHideDelete) {
-            operations += OP_DELETE
-        }
-        val records = mutableListOf<MediaProviderRecord>().also {
-            it += queryRecord(start, end, operations)
-        }.onEach {
-            val pi = binderViewModel.getPackageInfo(it.packageName) ?: return@onEach
-            it.packageInfo = pi
-            it.label = packageManager.getApplicationLabel(pi.applicationInfo).toString()
-        }.takeWhile {
-            it.packageInfo != null
-        }
-        return UsageRecordState.Done(records)
-    }
-
-    private val isHideQueryFlow: StateFlow<Boolean> = RootPreferences.isHideQueryFlowable.asFlow()
-    private val isHideInsertFlow: StateFlow<Boolean> = RootPreferences.isHideInsertFlowable.asFlow()
-    private val isHideDeleteFlow: StateFlow<Boolean> = RootPreferences.isHideDeleteFlowable.asFlow()
-
     fun reload() {
-        _recordsFlow.value = UsageRecordState.Loading
-        viewModelScope.launch {
-            val (start, end) = calculateSelectedTime(selectedTime)
-            _recordsFlow.value = load(
-                start, end,
-                isHideQueryFlow.value,
-                isHideInsertFlow.value,
-                isHideDeleteFlow.value
-            )
-        }
+        pagingSource?.invalidate()
     }
 
-    init {
-        viewModelScope.launch {
-            combine(
-                _selectedTimeFlow,
-                isHideQueryFlow,
-                isHideInsertFlow,
-                isHideDeleteFlow,
-            ) { selectedTime, isHideQuery, isHideInsert, isHideDelete ->
-                _recordsFlow.value = UsageRecordState.Loading
-                val (start, end) = calculateSelectedTime(selectedTime)
-                load(start, end, isHideQuery, isHideInsert, isHideDelete)
-            }.collect {
-                _recordsFlow.value = it
-            }
-        }
+    override fun onCleared() {
+        recordObserver?.let { binderViewModel.unregisterRecordObserver(it) }
+        recordObserver = null
     }
 
     companion object {
+        private const val PAGE_SIZE = 50
+
         fun provideFactory(
             application: Application, binderViewModel: BinderViewModel
         ): ViewModelProvider.Factory = object : ViewModelProvider.Factory {
@@ -181,8 +257,3 @@ class UsageRecordViewModel(
         }
     }
 }
-
-sealed class UsageRecordState {
-    data object Loading : UsageRecordState()
-    data class Done(val list: List<MediaProviderRecord>) : UsageRecordState()
-}
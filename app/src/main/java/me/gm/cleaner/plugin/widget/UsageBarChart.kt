@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.widget
+
+import android.content.Context
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.util.AttributeSet
+import android.view.View
+import androidx.annotation.AttrRes
+import androidx.annotation.StyleRes
+import me.gm.cleaner.plugin.ktx.colorError
+import me.gm.cleaner.plugin.ktx.colorOnSurfaceVariant
+import me.gm.cleaner.plugin.ktx.colorPrimaryContainer
+import me.gm.cleaner.plugin.ktx.dpToPx
+import kotlin.math.ceil
+
+/**
+ * Bars of the totals with the intercepted part drawn over the bottom of each, labels are drawn
+ * under every few bars so that they don't overlap.
+ */
+class UsageBarChart @JvmOverloads constructor(
+    context: Context, attrs: AttributeSet? = null, @AttrRes defStyleAttr: Int = 0,
+    @StyleRes defStyleRes: Int = 0
+) : View(context, attrs, defStyleAttr, defStyleRes) {
+    private val totalPaint = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        color = context.colorPrimaryContainer
+    }
+    private val interceptedPaint = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        color = context.colorError
+    }
+    private val labelPaint = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        color = context.colorOnSurfaceVariant
+        textSize = context.dpToPx(12).toFloat()
+        textAlign = Paint.Align.CENTER
+    }
+    private val barGap = context.dpToPx(2).toFloat()
+    private val labelGap = context.dpToPx(4).toFloat()
+    private var labels: List<String> = emptyList()
+    private var totals = IntArray(0)
+    private var intercepted = IntArray(0)
+
+    fun setData(labels: List<String>, totals: IntArray, intercepted: IntArray) {
+        require(labels.size == totals.size && totals.size == intercepted.size)
+        this.labels = labels
+        this.totals = totals
+        this.intercepted = intercepted
+        contentDescription = labels.indices.joinToString { "${labels[it]}: ${totals[it]}" }
+        invalidate()
+    }
+
+    override fun onDraw(canvas: Canvas) {
+        super.onDraw(canvas)
+        if (totals.isEmpty()) {
+            return
+        }
+        val left = paddingLeft.toFloat()
+        val top = paddingTop.toFloat()
+        val width = (getWidth() - paddingLeft - paddingRight).toFloat()
+        val labelHeight = labelPaint.fontSpacing
+        val bottom = height - paddingBottom - labelHeight - labelGap
+        val barWidth = width / totals.size
+        val max = maxOf(totals.max(), 1).toFloat()
+        totals.forEachIndexed { i, total ->
+            val barLeft = left + i * barWidth + barGap / 2
+            val barRight = left + (i + 1) * barWidth - barGap / 2
+            canvas.drawRect(
+                barLeft, bottom - (bottom - top) * total / max, barRight, bottom, totalPaint
+            )
+            canvas.drawRect(
+                barLeft, bottom - (bottom - top) * intercepted[i] / max, barRight, bottom,
+                interceptedPaint
+            )
+        }
+        val maxLabelWidth = labels.maxOf { labelPaint.measureText(it) } + labelGap
+        val step = maxOf(1, ceil(maxLabelWidth / barWidth).toInt())
+        val baseline = height - paddingBottom - labelPaint.descent()
+        // Label from the latest bar backwards, the latest is what is looked for first.
+        for (i in totals.indices.reversed() step step) {
+            canvas.drawText(labels[i], left + (i + 0.5F) * barWidth, baseline, labelPaint)
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.xposed
+
+import me.gm.cleaner.plugin.dao.MediaProviderOperation
+import me.gm.cleaner.plugin.model.MatchingTemplates
+import me.gm.cleaner.plugin.model.TemplateIndex
+
+/**
+ * Tells the hookers whether a call needs any work at all before they touch the MediaProvider,
+ * and which templates apply to it. Built from the [TemplateIndex] and the global switches, never
+ * modified afterwards.
+ * [ManagerService] publishes a new instance whenever either of them is written.
+ */
+class HookDecisionTable(
+    private val templateIndex: TemplateIndex,
+    val isRecordEnabled: Boolean,
+    /** Whether query templates may be turned into SQL instead of filtering the returned rows. */
+    val isSqlPushdownEnabled: Boolean,
+) {
+
+    fun matchingTemplates(
+        @MediaProviderOperation operation: Int, packageName: String
+    ): MatchingTemplates = templateIndex.matchingTemplates(operation, packageName)
+
+    /**
+     * @return false if the call can neither be intercepted nor recorded, thus the hooker should
+     * return immediately.
+     */
+    fun shouldHook(@MediaProviderOperation operation: Int, packageName: String): Boolean =
+        isRecordEnabled || !matchingTemplates(operation, packageName).isEmpty()
+}
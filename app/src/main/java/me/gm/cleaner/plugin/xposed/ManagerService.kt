@@ -25,16 +25,39 @@ import de.robv.android.xposed.XposedHelpers
 import me.gm.cleaner.plugin.BuildConfig
 import me.gm.cleaner.plugin.IManagerService
 import me.gm.cleaner.plugin.IMediaChangeObserver
+import me.gm.cleaner.plugin.IRecordObserver
 import me.gm.cleaner.plugin.R
+import me.gm.cleaner.plugin.dao.DailyUsage
+import me.gm.cleaner.plugin.dao.HourlyUsage
+import me.gm.cleaner.plugin.dao.MIGRATION_10_11
 import me.gm.cleaner.plugin.dao.MIGRATION_1_2
+import me.gm.cleaner.plugin.dao.MIGRATION_2_3
+import me.gm.cleaner.plugin.dao.MIGRATION_3_4
+import me.gm.cleaner.plugin.dao.MIGRATION_4_5
+import me.gm.cleaner.plugin.dao.MIGRATION_5_6
+import me.gm.cleaner.plugin.dao.MIGRATION_6_7
+import me.gm.cleaner.plugin.dao.MIGRATION_7_8
+import me.gm.cleaner.plugin.dao.MIGRATION_8_9
+import me.gm.cleaner.plugin.dao.MIGRATION_9_10
+import me.gm.cleaner.plugin.dao.MediaPathFts
 import me.gm.cleaner.plugin.dao.MediaProviderRecordDao
 import me.gm.cleaner.plugin.dao.MediaProviderRecordDatabase
+import me.gm.cleaner.plugin.dao.RecordKey
+import me.gm.cleaner.plugin.model.PackageSummary
+import me.gm.cleaner.plugin.model.PackageUsageTimes
 import me.gm.cleaner.plugin.model.ParceledListSlice
+import me.gm.cleaner.plugin.model.RecordBatch
+import me.gm.cleaner.plugin.model.RecordFilter
+import me.gm.cleaner.plugin.model.RecordKeys
+import me.gm.cleaner.plugin.model.UsageBuckets
+import me.gm.cleaner.plugin.xposed.hooker.MediaProviderBridge
 import java.io.File
 
 abstract class ManagerService : IManagerService.Stub() {
     lateinit var classLoader: ClassLoader
         protected set
+    lateinit var bridge: MediaProviderBridge
+        protected set
     lateinit var resources: Resources
         protected set
     lateinit var context: Context
@@ -42,9 +65,24 @@ abstract class ManagerService : IManagerService.Stub() {
     private lateinit var database: MediaProviderRecordDatabase
     lateinit var dao: MediaProviderRecordDao
         private set
-    private val observers = RemoteCallbackList<IMediaChangeObserver>()
+    lateinit var recordWriter: UsageRecordWriter
+        private set
+    private val mediaChangeDispatcher = MediaChangeDispatcher(MEDIA_CHANGE_MIN_INTERVAL_MILLIS)
     val rootSp by lazy { JsonFileSpImpl(File(context.filesDir, "root")) }
     val ruleSp by lazy { TemplatesJsonFileSpImpl(File(context.filesDir, "rule")) }
+    private val usageRecordKey by lazy { resources.getString(R.string.usage_record_key) }
+    private val sqlPushdownKey by lazy { resources.getString(R.string.sql_pushdown_key) }
+    private val recordTtlKey by lazy { resources.getString(R.string.usage_record_ttl_key) }
+    private val recordSizeCapKey by lazy { resources.getString(R.string.usage_record_size_cap_key) }
+    private val recordOverflowKey by lazy {
+        resources.getString(R.string.usage_record_overflow_key)
+    }
+    private lateinit var recordRetention: UsageRecordRetention
+
+    @Volatile
+    private var _hookDecisionTable: HookDecisionTable? = null
+    val hookDecisionTable: HookDecisionTable
+        get() = _hookDecisionTable ?: rebuildHookDecisionTable()
 
     protected fun onCreate(context: Context) {
         this.context = context
@@ -54,9 +92,24 @@ abstract class ManagerService : IManagerService.Stub() {
                 MediaProviderRecordDatabase::class.java,
                 MEDIA_PROVIDER_USAGE_RECORD_DATABASE_NAME
             )
-            .addMigrations(MIGRATION_1_2)
+            .addMigrations(
+                MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6,
+                MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10,
+                MIGRATION_10_11
+            )
             .build()
         dao = database.mediaProviderRecordDao()
+        recordWriter = UsageRecordWriter(
+            database, RECORD_QUEUE_CAPACITY, readOverflowPolicy(),
+            RECORD_REPEAT_WINDOW_MILLIS
+        ) { changes -> mediaChangeDispatcher.dispatchRecordChanges(changes) }
+        recordWriter.start()
+        recordRetention = UsageRecordRetention(
+            context, database, recordWriter,
+            { readLongSetting(recordTtlKey, DEFAULT_RECORD_TTL_DAYS) * DailyUsage.DAY_MILLIS },
+            { readLongSetting(recordSizeCapKey, DEFAULT_RECORD_SIZE_CAP_MB) * 1024 * 1024 }
+        )
+        recordRetention.start()
     }
 
     private val packageManagerService: IInterface by lazy {
@@ -93,6 +146,19 @@ abstract class ManagerService : IManagerService.Stub() {
             userId
         ) as? PackageInfo
 
+    override fun getPackageInfos(
+        packageNames: Array<String>, flags: Int, userId: Int
+    ): ParceledListSlice<PackageInfo> =
+        ParceledListSlice(packageNames.mapNotNull { getPackageInfo(it, flags, userId) })
+
+    override fun getInstalledPackageSummaries(userId: Int): ParceledListSlice<PackageSummary> =
+        ParceledListSlice(getInstalledPackages(userId, 0).list.map {
+            PackageSummary(
+                it.packageName, it.applicationInfo.uid, it.applicationInfo.flags,
+                it.lastUpdateTime, it.longVersionCode
+            )
+        })
+
     override fun readSp(who: Int): String? = when (who) {
         R.xml.root_preferences -> rootSp.read()
         R.xml.template_preferences -> ruleSp.read()
@@ -101,43 +167,161 @@ abstract class ManagerService : IManagerService.Stub() {
 
     override fun writeSp(who: Int, what: String) {
         when (who) {
-            R.xml.root_preferences -> rootSp.write(what)
+            R.xml.root_preferences -> {
+                val retentionKeys = listOf(recordTtlKey, recordSizeCapKey)
+                val oldLimits = retentionKeys.map { rootSp.getString(it, null) }
+                rootSp.write(what)
+                if (retentionKeys.map { rootSp.getString(it, null) } != oldLimits) {
+                    recordRetention.purgeNow()
+                }
+                recordWriter.overflowPolicy = readOverflowPolicy()
+            }
+
             R.xml.template_preferences -> ruleSp.write(what)
         }
+        rebuildHookDecisionTable()
+    }
+
+    /** List preferences store their values as strings. */
+    private fun readLongSetting(key: String, defaultValue: Long): Long =
+        rootSp.getString(key, null)?.toLongOrNull() ?: defaultValue
+
+    private fun readOverflowPolicy(): UsageRecordWriter.OverflowPolicy {
+        val name = rootSp.getString(recordOverflowKey, null)
+        return UsageRecordWriter.OverflowPolicy.values().firstOrNull { it.name == name }
+            ?: UsageRecordWriter.OverflowPolicy.DROP_OLDEST
+    }
+
+    @Synchronized
+    private fun rebuildHookDecisionTable(): HookDecisionTable {
+        val table = HookDecisionTable(
+            ruleSp.templateIndex, rootSp.getBoolean(usageRecordKey, true),
+            rootSp.getBoolean(sqlPushdownKey, false)
+        )
+        _hookDecisionTable = table
+        return table
     }
 
     override fun clearAllTables() {
-        database.clearAllTables()
+        // The writer caches ids of rows that are about to be gone.
+        recordWriter.withWriterPaused { database.clearAllTables() }
     }
 
     override fun packageUsageTimes(operation: Int, packageNames: List<String>) =
         dao.packageUsageTimes(operation, *packageNames.toTypedArray())
 
+    override fun getAllPackageUsageTimes(): ParceledListSlice<PackageUsageTimes> =
+        ParceledListSlice(dao.loadPackageUsage().map {
+            PackageUsageTimes(
+                it.packageName, it.operation, it.count.coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+            )
+        })
+
+    override fun getUsageBuckets(start: Long, end: Long, bucketMillis: Long): UsageBuckets {
+        require(bucketMillis >= HourlyUsage.HOUR_MILLIS) { "bucketMillis $bucketMillis < an hour" }
+        val rows = dao.loadUsageBuckets(start, end, bucketMillis)
+        val packageIndices = LinkedHashMap<String, Int>()
+        val packageIndex = IntArray(rows.size) {
+            packageIndices.getOrPut(rows[it].packageName) { packageIndices.size }
+        }
+        return UsageBuckets(
+            packageIndices.keys.toTypedArray(),
+            LongArray(rows.size) { rows[it].bucketStart },
+            packageIndex,
+            IntArray(rows.size) { rows[it].operation },
+            IntArray(rows.size) { rows[it].count.coerceAtMost(Int.MAX_VALUE.toLong()).toInt() },
+            IntArray(rows.size) {
+                rows[it].interceptedCount.coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+            },
+        )
+    }
+
+    override fun readRecords(
+        start: Long, end: Long, operations: IntArray, beforeTimeMillis: Long, beforeId: Long,
+        limit: Int
+    ): RecordBatch = RecordBatch.of(
+        dao.loadPage(start, end, operations.asList(), beforeTimeMillis, beforeId, limit)
+    )
+
+    override fun searchRecordKeys(
+        start: Long, end: Long, operations: IntArray, query: String,
+        packageNames: Array<String>, beforeTimeMillis: Long, beforeId: Long, limit: Int
+    ): RecordKeys {
+        val match = MediaPathFts.matchExpression(query)
+        // Leave room for the other bound variables. Each chunk returns its own newest page, the
+        // page of all of them is the newest of those.
+        val chunks = packageNames.asList().chunked(MAX_SEARCH_PACKAGES)
+        val pages = if (match != null) {
+            chunks.ifEmpty { listOf(emptyList()) }.flatMap { packages ->
+                dao.searchKeys(
+                    start, end, operations.asList(), match, packages, beforeTimeMillis,
+                    beforeId, limit
+                )
+            }
+        } else {
+            chunks.flatMap { packages ->
+                dao.searchKeysByPackage(
+                    start, end, operations.asList(), packages, beforeTimeMillis, beforeId,
+                    limit
+                )
+            }
+        }
+        val keys = pages
+            .distinctBy { it.id }
+            .sortedWith(compareByDescending<RecordKey> { it.timeMillis }.thenByDescending { it.id })
+            .take(limit)
+        return RecordKeys(
+            keys.map { it.timeMillis }.toLongArray(), keys.map { it.id }.toLongArray()
+        )
+    }
+
+    override fun readRecordsById(ids: LongArray): RecordBatch =
+        RecordBatch.of(dao.loadByIds(ids.asList()))
+
+    override fun getRecordQueueStats(): LongArray = longArrayOf(
+        recordWriter.queueDepth.toLong(), recordWriter.capacity.toLong(), recordWriter.droppedCount
+    )
+
     override fun registerMediaChangeObserver(observer: IMediaChangeObserver) {
-        observers.register(observer)
+        mediaChangeDispatcher.register(observer)
     }
 
     override fun unregisterMediaChangeObserver(observer: IMediaChangeObserver) {
-        observers.unregister(observer)
+        mediaChangeDispatcher.unregister(observer)
     }
 
-    @Synchronized
-    fun dispatchMediaChange() {
-        var i = observers.beginBroadcast()
-        while (i > 0) {
-            i--
-            val observer = observers.getBroadcastItem(i)
-            if (observer != null) {
-                try {
-                    observer.onChange()
-                } catch (ignored: RemoteException) {
-                }
+    override fun registerRecordObserver(
+        observer: IRecordObserver, filter: RecordFilter, afterSequence: Long
+    ) {
+        mediaChangeDispatcher.register(observer, filter) {
+            if (afterSequence <= 0) {
+                return@register emptyList()
+            }
+            dao.loadKeysAfter(
+                afterSequence, filter.startTimeMillis, filter.endTimeMillis,
+                filter.operations.asList(), MAX_BACKFILL_RECORDS
+            ).asReversed().map {
+                UsageRecordWriter.Change(it.id, it.packageName, it.operation, it.timeMillis, true)
             }
         }
-        observers.finishBroadcast()
+    }
+
+    override fun unregisterRecordObserver(observer: IRecordObserver) {
+        mediaChangeDispatcher.unregister(observer)
+    }
+
+    fun dispatchMediaChange() {
+        mediaChangeDispatcher.dispatchMediaChange()
     }
 
     companion object {
         const val MEDIA_PROVIDER_USAGE_RECORD_DATABASE_NAME = "media_provider.db"
+        private const val RECORD_QUEUE_CAPACITY = 4096
+        private const val RECORD_REPEAT_WINDOW_MILLIS = 60_000L
+        private const val DEFAULT_RECORD_TTL_DAYS = 30L
+        private const val DEFAULT_RECORD_SIZE_CAP_MB = 64L
+        private const val MEDIA_CHANGE_MIN_INTERVAL_MILLIS = 250L
+        private const val MAX_SEARCH_PACKAGES = 900
+        private const val MAX_BACKFILL_RECORDS = 1000
     }
 }
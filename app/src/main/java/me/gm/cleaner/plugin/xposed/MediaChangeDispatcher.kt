@@ -0,0 +1,146 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.xposed
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.RemoteCallbackList
+import android.os.RemoteException
+import android.os.SystemClock
+import me.gm.cleaner.plugin.IMediaChangeObserver
+import me.gm.cleaner.plugin.IRecordObserver
+import me.gm.cleaner.plugin.model.RecordFilter
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Delivers [IMediaChangeObserver.onChange] and [IRecordObserver.onRecordsChanged] on its own
+ * thread. Changes notified in a burst are coalesced into at most one broadcast every
+ * [minIntervalMillis], the last change of a burst is always followed by a broadcast. A record
+ * observer is only called with the changes matching its [RecordFilter].
+ */
+class MediaChangeDispatcher(@Volatile var minIntervalMillis: Long) {
+    private val observers = RemoteCallbackList<IMediaChangeObserver>()
+    private val recordObservers = RemoteCallbackList<IRecordObserver>()
+    private val handler = Handler(
+        HandlerThread("MediaChangeDispatcher").apply { start() }.looper
+    )
+    private val isBroadcastPending = AtomicBoolean()
+    private val pendingChanges = ConcurrentLinkedQueue<UsageRecordWriter.Change>()
+    private var lastBroadcastUptimeMillis = 0L
+    private var sequence = 0L
+    private val broadcast = Runnable {
+        isBroadcastPending.set(false)
+        lastBroadcastUptimeMillis = SystemClock.uptimeMillis()
+        var i = observers.beginBroadcast()
+        while (i > 0) {
+            i--
+            val observer = observers.getBroadcastItem(i)
+            if (observer != null) {
+                try {
+                    observer.onChange()
+                } catch (ignored: RemoteException) {
+                }
+            }
+        }
+        observers.finishBroadcast()
+
+        val changes = generateSequence { pendingChanges.poll() }.toList()
+        if (changes.isNotEmpty()) {
+            sequence = maxOf(sequence, changes.filter { it.isAppended }.maxOfOrNull { it.id } ?: 0)
+            i = recordObservers.beginBroadcast()
+            while (i > 0) {
+                i--
+                val filter = recordObservers.getBroadcastCookie(i) as RecordFilter
+                deliver(recordObservers.getBroadcastItem(i), filter, changes)
+            }
+            recordObservers.finishBroadcast()
+        }
+    }
+
+    fun register(observer: IMediaChangeObserver) {
+        observers.register(observer)
+    }
+
+    fun unregister(observer: IMediaChangeObserver) {
+        observers.unregister(observer)
+    }
+
+    /**
+     * Register observer with filter, then deliver what [backfill] loads on the dispatcher
+     * thread, which are the matching records written before.
+     */
+    fun register(
+        observer: IRecordObserver, filter: RecordFilter,
+        backfill: () -> List<UsageRecordWriter.Change>
+    ) {
+        // Drop the old filter, register doesn't replace the cookie.
+        recordObservers.unregister(observer)
+        recordObservers.register(observer, filter)
+        handler.post {
+            val changes = backfill()
+            if (changes.isNotEmpty()) {
+                sequence = maxOf(sequence, changes.maxOf { it.id })
+                deliver(observer, filter, changes)
+            }
+        }
+    }
+
+    fun unregister(observer: IRecordObserver) {
+        recordObservers.unregister(observer)
+    }
+
+    private fun deliver(
+        observer: IRecordObserver?, filter: RecordFilter, changes: List<UsageRecordWriter.Change>
+    ) {
+        val matches = changes.filter { filter.matches(it.packageName, it.operation, it.timeMillis) }
+        if (observer == null || matches.isEmpty()) {
+            // Nothing this observer cares about, don't wake it.
+            return
+        }
+        val (appended, updated) = matches.partition { it.isAppended }
+        val appendedIds = appended.map { it.id }.distinct()
+        val updatedIds = updated.map { it.id }.distinct() - appendedIds.toSet()
+        try {
+            observer.onRecordsChanged(
+                appendedIds.toLongArray(), updatedIds.toLongArray(), sequence
+            )
+        } catch (ignored: RemoteException) {
+        }
+    }
+
+    /**
+     * Queue the changes of a committed batch and schedule a broadcast. Never blocks.
+     */
+    fun dispatchRecordChanges(changes: List<UsageRecordWriter.Change>) {
+        pendingChanges.addAll(changes)
+        dispatchMediaChange()
+    }
+
+    /**
+     * Schedule a broadcast unless one is already pending. Never blocks.
+     */
+    fun dispatchMediaChange() {
+        if (isBroadcastPending.compareAndSet(false, true)) {
+            handler.post {
+                // Read on the handler thread, where it is written.
+                val next = lastBroadcastUptimeMillis + minIntervalMillis
+                handler.postAtTime(broadcast, maxOf(next, SystemClock.uptimeMillis()))
+            }
+        }
+    }
+}
@@ -18,23 +18,32 @@ package me.gm.cleaner.plugin.xposed;
 
 import java.io.File;
 
+import me.gm.cleaner.plugin.model.TemplateIndex;
 import me.gm.cleaner.plugin.model.Templates;
 
 public final class TemplatesJsonFileSpImpl extends JsonFileSpImpl {
     private volatile Templates templatesCache;
+    private volatile TemplateIndex templateIndexCache;
 
     public TemplatesJsonFileSpImpl(File src) {
         super(src);
         templatesCache = new Templates(read());
+        templateIndexCache = new TemplateIndex(templatesCache);
     }
 
     @Override
     public void write(String what) {
         super.write(what);
-        templatesCache = new Templates(what);
+        var templates = new Templates(what);
+        templatesCache = templates;
+        templateIndexCache = new TemplateIndex(templates);
     }
 
     public Templates getTemplates() {
         return templatesCache;
     }
+
+    public TemplateIndex getTemplateIndex() {
+        return templateIndexCache;
+    }
 }
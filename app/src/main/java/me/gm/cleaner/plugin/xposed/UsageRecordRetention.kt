@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.xposed
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.PowerManager
+import de.robv.android.xposed.XposedBridge
+import me.gm.cleaner.plugin.dao.MediaProviderRecordDatabase
+
+/**
+ * Keeps the usage record database from growing forever. Records older than [ttlMillis] are rolled
+ * up into [me.gm.cleaner.plugin.dao.DailyUsage] and deleted, then the oldest records go the same
+ * way until the live data fits in [maxSizeBytes]. Both limits are read again on every purge, so
+ * changed settings apply from the next one. Deletion runs on its own thread in small
+ * batches, each of which pauses the [UsageRecordWriter] only briefly. Hourly usage is kept for a
+ * year. Free pages are given back to the file system when the device is idle.
+ */
+class UsageRecordRetention(
+    private val context: Context,
+    private val database: MediaProviderRecordDatabase,
+    private val writer: UsageRecordWriter,
+    private val ttlMillis: () -> Long,
+    private val maxSizeBytes: () -> Long,
+) {
+    private val dao = database.mediaProviderRecordDao()
+    private val handler = Handler(
+        HandlerThread("UsageRecordRetention").apply { start() }.looper
+    )
+    private val powerManager = context.getSystemService(PowerManager::class.java)
+    private val purge = object : Runnable {
+        override fun run() {
+            runCatchingLogged(::purgeExpired)
+            handler.postDelayed(this, PURGE_INTERVAL_MILLIS)
+        }
+    }
+    private val compact = Runnable { runCatchingLogged(::compact) }
+
+    fun start() {
+        handler.postDelayed(purge, INITIAL_DELAY_MILLIS)
+        val filter = IntentFilter().apply {
+            addAction(Intent.ACTION_SCREEN_OFF)
+            addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED)
+        }
+        context.registerReceiver(object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                if (powerManager.isDeviceIdleMode || !powerManager.isInteractive) {
+                    handler.removeCallbacks(compact)
+                    handler.post(compact)
+                }
+            }
+        }, filter, null, handler)
+    }
+
+    /** Purge as soon as possible instead of waiting for the next interval. */
+    fun purgeNow() {
+        handler.removeCallbacks(purge)
+        handler.post(purge)
+    }
+
+    private fun purgeExpired() {
+        val before = System.currentTimeMillis() - ttlMillis()
+        while (true) {
+            val ids = dao.loadIdsBefore(before, BATCH_SIZE)
+            if (ids.isEmpty()) {
+                break
+            }
+            writer.withWriterPaused { dao.rollUpAndDelete(ids) }
+        }
+        val maxSizeBytes = maxSizeBytes()
+        while (liveSizeBytes() > maxSizeBytes) {
+            val ids = dao.loadOldestIds(BATCH_SIZE)
+            if (ids.isEmpty()) {
+                break
+            }
+            // Paths make up most of the size, drop the orphaned ones before measuring again.
+            writer.withWriterPaused {
+                dao.rollUpAndDelete(ids)
+                dao.deleteUnusedPaths()
+            }
+        }
+        writer.withWriterPaused { dao.deleteUnusedPaths() }
+        dao.deleteHourlyUsageBefore(System.currentTimeMillis() - HOURLY_USAGE_TTL_MILLIS)
+    }
+
+    private fun compact() {
+        val db = database.openHelper.writableDatabase
+        if (longPragma("auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // Switching takes a full vacuum, once. It holds the write lock of the database for
+            // its whole run, so the writer waits for it here rather than inside a transaction.
+            writer.withWriterPaused {
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+                db.execSQL("VACUUM")
+            }
+            return
+        }
+        while (longPragma("freelist_count") > 0 &&
+            (powerManager.isDeviceIdleMode || !powerManager.isInteractive)
+        ) {
+            writer.withWriterPaused {
+                db.query("PRAGMA incremental_vacuum($VACUUM_PAGES)").use { cursor ->
+                    while (cursor.moveToNext()) {
+                        // Each step frees a page.
+                    }
+                }
+            }
+        }
+    }
+
+    /** Size of the pages in use, free pages aren't counted as they are reused before growing. */
+    private fun liveSizeBytes(): Long =
+        (longPragma("page_count") - longPragma("freelist_count")) * longPragma("page_size")
+
+    private fun longPragma(name: String): Long =
+        database.openHelper.writableDatabase.query("PRAGMA $name").use { cursor ->
+            if (cursor.moveToFirst()) cursor.getLong(0) else 0
+        }
+
+    private inline fun runCatchingLogged(block: () -> Unit) {
+        try {
+            block()
+        } catch (e: Exception) {
+            XposedBridge.log(e)
+        }
+    }
+
+    companion object {
+        private const val BATCH_SIZE = 200
+        private const val VACUUM_PAGES = 256
+        private const val AUTO_VACUUM_INCREMENTAL = 2L
+        private const val INITIAL_DELAY_MILLIS = 60 * 1000L
+        private const val PURGE_INTERVAL_MILLIS = 6 * 60 * 60 * 1000L
+        private const val HOURLY_USAGE_TTL_MILLIS = 365 * 24 * 60 * 60 * 1000L
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.xposed
+
+import de.robv.android.xposed.XposedBridge
+import me.gm.cleaner.plugin.dao.MediaProviderOperation
+import me.gm.cleaner.plugin.dao.MediaProviderRecord
+import me.gm.cleaner.plugin.dao.MediaProviderRecordDatabase
+import me.gm.cleaner.plugin.dao.MediaProviderRecordEntity
+import me.gm.cleaner.plugin.dao.MediaProviderRecordPath
+import me.gm.cleaner.plugin.dao.PathInterner
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Takes usage records off the binder threads. Records are queued in a bounded queue and a single
+ * writer thread inserts whatever has piled up in one transaction, then calls [onCommitted] once
+ * with the [Change]s of the whole batch.
+ *
+ * A record identical to one written less than [repeatWindowMillis] before, that is the same
+ * package, match, operation, paths and verdicts, isn't inserted again. The existing row's
+ * repeat count and last time are bumped instead.
+ */
+class UsageRecordWriter(
+    private val database: MediaProviderRecordDatabase,
+    val capacity: Int,
+    overflowPolicy: OverflowPolicy,
+    private val repeatWindowMillis: Long,
+    private val onCommitted: (List<Change>) -> Unit,
+) {
+    /**
+     * A record written, or bumped if [isAppended] is false.
+     */
+    data class Change(
+        val id: Long,
+        val packageName: String,
+        @MediaProviderOperation val operation: Int,
+        val timeMillis: Long,
+        val isAppended: Boolean,
+    )
+
+    enum class OverflowPolicy {
+        /** Make room by discarding the oldest queued record. */
+        DROP_OLDEST,
+
+        /**
+         * Once the queue is half full, keep only one of every [SAMPLE_RATE] records, then discard
+         * new records if it fills up anyway.
+         */
+        SAMPLE,
+
+        /** Block the binder thread until the writer catches up. */
+        BLOCK,
+    }
+
+    private val queue = ArrayBlockingQueue<MediaProviderRecord>(capacity)
+    private val sampleThreshold = capacity / 2
+    private val sampleCounter = AtomicInteger()
+    private val _droppedCount = AtomicLong()
+    private val writerThread = Thread(::drain, "UsageRecordWriter").apply { isDaemon = true }
+    private val dao = database.mediaProviderRecordDao()
+    private val pathInterner = PathInterner(dao, PATH_ID_CACHE_SIZE)
+
+    /** Held while a batch is written, guards the caches below. */
+    private val writeLock = Any()
+
+    /** Rows written recently. */
+    private val recentRecords = HashMap<Fingerprint, RecentRecord>()
+
+    /** Applies to the records queued from now on. */
+    @Volatile
+    var overflowPolicy = overflowPolicy
+
+    /** Records waiting to be written. */
+    val queueDepth: Int
+        get() = queue.size
+
+    /** Records discarded by the [OverflowPolicy] so far. */
+    val droppedCount: Long
+        get() = _droppedCount.get()
+
+    fun start() {
+        writerThread.start()
+    }
+
+    /**
+     * Queue a record, never blocks unless the policy is [OverflowPolicy.BLOCK].
+     */
+    fun write(record: MediaProviderRecord) {
+        when (overflowPolicy) {
+            OverflowPolicy.DROP_OLDEST -> while (!queue.offer(record)) {
+                if (queue.poll() != null) {
+                    _droppedCount.incrementAndGet()
+                }
+            }
+
+            OverflowPolicy.SAMPLE -> if ((queue.size >= sampleThreshold &&
+                        sampleCounter.getAndIncrement() % SAMPLE_RATE != 0) ||
+                !queue.offer(record)
+            ) {
+                _droppedCount.incrementAndGet()
+            }
+
+            OverflowPolicy.BLOCK -> queue.put(record)
+        }
+    }
+
+    private fun drain() {
+        val batch = ArrayList<MediaProviderRecord>(MAX_BATCH_SIZE)
+        while (true) {
+            try {
+                batch += queue.take()
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1)
+                onCommitted(synchronized(writeLock) { writeBatch(batch) })
+            } catch (e: InterruptedException) {
+                return
+            } catch (e: Exception) {
+                // Never let a broken database take the MediaProvider down with us.
+                XposedBridge.log(e)
+            } finally {
+                batch.clear()
+            }
+        }
+    }
+
+    /**
+     * Write the batch in one transaction. If that fails, write its records one transaction each,
+     * so that a record the database rejects only loses itself.
+     */
+    private fun writeBatch(batch: List<MediaProviderRecord>): List<Change> {
+        try {
+            return database.runInTransaction<List<Change>> { batch.map(::writeOrCollapse) }
+        } catch (e: Exception) {
+            // Rows of the rolled back transaction may be gone.
+            invalidateCaches()
+            if (batch.size == 1) {
+                throw e
+            }
+        }
+        var failure: Exception? = null
+        var failedCount = 0
+        val changes = batch.mapNotNull { record ->
+            try {
+                database.runInTransaction<Change> { writeOrCollapse(record) }
+            } catch (e: Exception) {
+                invalidateCaches()
+                failure = failure ?: e
+                failedCount++
+                null
+            }
+        }
+        failure?.let {
+            XposedBridge.log("Dropped $failedCount of ${batch.size} usage records")
+            XposedBridge.log(it)
+        }
+        return changes
+    }
+
+    /**
+     * Run [block] between two batches. Rows it deletes may still be cached by the writer, so
+     * the caches are dropped afterwards.
+     */
+    fun <T> withWriterPaused(block: () -> T): T = synchronized(writeLock) {
+        try {
+            block()
+        } finally {
+            invalidateCaches()
+        }
+    }
+
+    private fun invalidateCaches() {
+        recentRecords.clear()
+        pathInterner.clear()
+    }
+
+    private fun writeOrCollapse(record: MediaProviderRecord): Change {
+        val fingerprint = Fingerprint(record)
+        val recent = recentRecords[fingerprint]
+        if (recent != null && record.timeMillis - recent.lastTimeMillis <= repeatWindowMillis) {
+            recent.repeatCount++
+            recent.lastTimeMillis = record.timeMillis
+            dao.updateRepeat(recent.id, recent.repeatCount, recent.lastTimeMillis)
+            incrementUsage(record)
+            return Change(recent.id, record.packageName, record.operation, record.timeMillis, false)
+        }
+        if (recentRecords.size >= MAX_RECENT_RECORDS) {
+            recentRecords.values.removeIf {
+                record.timeMillis - it.lastTimeMillis > repeatWindowMillis
+            }
+            if (recentRecords.size >= MAX_RECENT_RECORDS) {
+                recentRecords.clear()
+            }
+        }
+        val id = dao.insert(MediaProviderRecordEntity.of(record))
+        dao.insertPaths(record.data.zip(record.mimeType).mapIndexed { position, (data, mimeType) ->
+            MediaProviderRecordPath(id, position, pathInterner.intern(data, mimeType))
+        })
+        incrementUsage(record)
+        recentRecords[fingerprint] = RecentRecord(id, record.timeMillis)
+        return Change(id, record.packageName, record.operation, record.timeMillis, true)
+    }
+
+    private fun incrementUsage(record: MediaProviderRecord) {
+        dao.incrementPackageUsage(record.packageName, record.operation)
+        dao.incrementHourlyUsage(
+            record.timeMillis, record.packageName, record.operation, record.intercepted.any { it }
+        )
+    }
+
+    private data class Fingerprint(
+        val packageName: String, val match: Int, val operation: Int, val hash: Long
+    ) {
+        constructor(record: MediaProviderRecord) : this(
+            record.packageName, record.match, record.operation, hash(record)
+        )
+
+        companion object {
+            /** 64-bit FNV-1a of the paths and verdicts, unlikely to collide in a short window. */
+            private fun hash(record: MediaProviderRecord): Long {
+                var hash = -0x340d631b7bdddcdbL
+                fun mix(c: Int) {
+                    hash = (hash xor c.toLong()) * 0x100000001b3L
+                }
+                record.data.zip(record.intercepted).forEach { (data, intercepted) ->
+                    data.forEach { mix(it.code) }
+                    mix(if (intercepted) 1 else 0)
+                }
+                mix(record.data.size)
+                return hash
+            }
+        }
+    }
+
+    private class RecentRecord(val id: Long, var lastTimeMillis: Long) {
+        var repeatCount = 1
+    }
+
+    companion object {
+        private const val MAX_BATCH_SIZE = 256
+        private const val MAX_RECENT_RECORDS = 1024
+        private const val PATH_ID_CACHE_SIZE = 4096
+        private const val SAMPLE_RATE = 4
+    }
+}
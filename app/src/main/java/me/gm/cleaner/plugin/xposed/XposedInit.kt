@@ -28,6 +28,7 @@ import de.robv.android.xposed.callbacks.XC_LoadPackage.LoadPackageParam
 import me.gm.cleaner.plugin.xposed.hooker.DeleteHooker
 import me.gm.cleaner.plugin.xposed.hooker.FileHooker
 import me.gm.cleaner.plugin.xposed.hooker.InsertHooker
+import me.gm.cleaner.plugin.xposed.hooker.MediaProviderBridge
 import me.gm.cleaner.plugin.xposed.hooker.QueryHooker
 import java.io.File
 
@@ -36,14 +37,15 @@ class XposedInit : ManagerService(), IXposedHookLoadPackage, IXposedHookZygoteIn
     @Throws(Throwable::class)
     private fun onMediaProviderLoaded(lpparam: LoadPackageParam, context: Context) {
         val mediaProvider = try {
-            XposedHelpers.findClass(
-                "com.android.providers.media.MediaProvider", lpparam.classLoader
-            )
+            XposedHelpers.findClass(MediaProviderBridge.MEDIA_PROVIDER, lpparam.classLoader)
         } catch (e: XposedHelpers.ClassNotFoundError) {
             return
         }
         // only save MediaProvider's classLoader
         classLoader = lpparam.classLoader
+        // Resolve everything the hookers need up front, bail out before hooking if anything is
+        // missing in this MediaProvider.
+        bridge = MediaProviderBridge(classLoader)
         onCreate(context)
         XposedBridge.hookAllMethods(
             mediaProvider, "queryInternal", QueryHooker(this@XposedInit)
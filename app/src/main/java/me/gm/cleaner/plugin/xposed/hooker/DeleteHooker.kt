@@ -25,15 +25,16 @@ import android.os.Build
 import android.os.Bundle
 import android.provider.MediaStore.Files.FileColumns
 import de.robv.android.xposed.XC_MethodHook
-import de.robv.android.xposed.XposedHelpers
-import me.gm.cleaner.plugin.R
 import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_DELETE
 import me.gm.cleaner.plugin.dao.MediaProviderRecord
 import me.gm.cleaner.plugin.xposed.ManagerService
 import me.gm.cleaner.plugin.xposed.util.MimeUtils
 import java.io.File
+import java.lang.reflect.InvocationTargetException
 
 class DeleteHooker(private val service: ManagerService) : XC_MethodHook(), MediaProviderHooker {
+    override val bridge: MediaProviderBridge = service.bridge
+
     @Throws(Throwable::class)
     override fun beforeHookedMethod(param: MethodHookParam) {
         if (param.isFuseThread) {
@@ -59,23 +60,22 @@ class DeleteHooker(private val service: ManagerService) : XC_MethodHook(), Media
             else -> throw UnsupportedOperationException()
         }
 
+        val callingPackage = param.callingPackage
+        val decisionTable = service.hookDecisionTable
+        if (!decisionTable.shouldHook(OP_DELETE, callingPackage)) {
+            // Nobody cares about this call.
+            return
+        }
+
         /** PARSE */
         val match = param.matchUri(uri, param.isCallingPackageAllowedHidden)
         val data = mutableListOf<String>()
-        val mimeType = mutableListOf<String>()
+        val mimeType = mutableListOf<String?>()
         when (match) {
             AUDIO_MEDIA_ID, VIDEO_MEDIA_ID, IMAGES_MEDIA_ID -> {
                 try {
-                    when {
-                        Build.VERSION.SDK_INT >= Build.VERSION_CODES.R -> XposedHelpers.callMethod(
-                            param.thisObject, "enforceCallingPermission", uri, extras, true
-                        )
-
-                        Build.VERSION.SDK_INT == Build.VERSION_CODES.Q -> XposedHelpers.callMethod(
-                            param.thisObject, "enforceCallingPermission", uri, true
-                        )
-                    }
-                } catch (e: XposedHelpers.InvocationTargetError) {
+                    bridge.enforceCallingPermission(param.thisObject, uri, extras, true)
+                } catch (e: InvocationTargetException) {
                     if (e.cause is RecoverableSecurityException) {
                         // Give callers interacting with a specific media item a chance to
                         // escalate access if they don't already have it
@@ -83,19 +83,10 @@ class DeleteHooker(private val service: ManagerService) : XC_MethodHook(), Media
                     }
                 }
 
-                val qb = when {
-                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.R -> XposedHelpers.callMethod(
-                        param.thisObject, "getQueryBuilder", TYPE_DELETE, match, uri,
-                        extras, null
-                    )
-
-                    Build.VERSION.SDK_INT == Build.VERSION_CODES.Q -> XposedHelpers.callMethod(
-                        param.thisObject, "getQueryBuilder", TYPE_DELETE, uri, match, null
-                    )
-
-                    else -> throw UnsupportedOperationException()
-                }
-                val helper = XposedHelpers.callMethod(param.thisObject, "getDatabaseForUri", uri)
+                val qb = bridge.getQueryBuilder(
+                    param.thisObject, TYPE_DELETE, match, uri, extras, null
+                )
+                val helper = bridge.getDatabaseForUri(param.thisObject, uri)
                 val projection = arrayOf(
                     FileColumns.MEDIA_TYPE,
                     FileColumns.DATA,
@@ -104,19 +95,12 @@ class DeleteHooker(private val service: ManagerService) : XC_MethodHook(), Media
                     FileColumns.MIME_TYPE,
                 )
 
-                val c = when {
-                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.R -> XposedHelpers.callMethod(
-                        qb, "query", helper, projection, userWhere, userWhereArgs,
-                        null, null, null, null, null
-                    )
-
-                    Build.VERSION.SDK_INT == Build.VERSION_CODES.Q -> XposedHelpers.callMethod(
-                        qb, "query", XposedHelpers.callMethod(helper, "getWritableDatabase"),
-                        projection, userWhere, userWhereArgs, null, null, null, null, null
-                    )
-
-                    else -> throw UnsupportedOperationException()
-                } as Cursor
+                val c = bridge.query(
+                    qb,
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) helper
+                    else bridge.getWritableDatabase(helper),
+                    projection, userWhere, userWhereArgs, null, null, null, null, null
+                )
                 if (c.count == 0) {
                     // deleting nothing.
                     c.close()
@@ -140,15 +124,12 @@ class DeleteHooker(private val service: ManagerService) : XC_MethodHook(), Media
         // There is a system confirm dialog before deletion, thus we don't intercept delete operation.
 
         /** RECORD */
-        if (service.rootSp.getBoolean(
-                service.resources.getString(R.string.usage_record_key), true
-            )
-        ) {
-            service.dao.insert(
+        if (decisionTable.isRecordEnabled) {
+            service.recordWriter.write(
                 MediaProviderRecord(
                     0,
                     System.currentTimeMillis(),
-                    param.callingPackage,
+                    callingPackage,
                     match,
                     OP_DELETE,
                     data,
@@ -156,7 +137,6 @@ class DeleteHooker(private val service: ManagerService) : XC_MethodHook(), Media
                     MutableList(data.size) { false }
                 )
             )
-            service.dispatchMediaChange()
         }
     }
 
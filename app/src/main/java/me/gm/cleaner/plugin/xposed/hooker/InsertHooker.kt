@@ -22,12 +22,9 @@ import android.net.Uri
 import android.os.Build
 import android.os.Bundle
 import android.os.Environment
-import android.os.FileUtils
 import android.provider.MediaStore
 import android.text.TextUtils
 import de.robv.android.xposed.XC_MethodHook
-import de.robv.android.xposed.XposedHelpers
-import me.gm.cleaner.plugin.R
 import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_INSERT
 import me.gm.cleaner.plugin.dao.MediaProviderRecord
 import me.gm.cleaner.plugin.xposed.ManagerService
@@ -36,6 +33,8 @@ import java.io.File
 import java.util.*
 
 class InsertHooker(private val service: ManagerService) : XC_MethodHook(), MediaProviderHooker {
+    override val bridge: MediaProviderBridge = service.bridge
+
     @Throws(Throwable::class)
     override fun beforeHookedMethod(param: MethodHookParam) {
         if (param.isFuseThread) {
@@ -58,6 +57,13 @@ class InsertHooker(private val service: ManagerService) : XC_MethodHook(), Media
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) param.args[6] else param.args[4]
                 ) as Int
 
+        val callingPackage = param.callingPackage
+        val decisionTable = service.hookDecisionTable
+        if (!decisionTable.shouldHook(OP_INSERT, callingPackage)) {
+            // Nobody cares about this call.
+            return
+        }
+
         /** PARSE */
         var mimeType = values.getAsString(MediaStore.MediaColumns.MIME_TYPE)
         val wasPathEmpty = wasPathEmpty(values)
@@ -77,23 +83,20 @@ class InsertHooker(private val service: ManagerService) : XC_MethodHook(), Media
         }
 
         /** INTERCEPT */
-        val shouldIntercept = service.ruleSp.templates
-            .filterTemplate(javaClass, param.callingPackage)
-            .applyTemplates(listOf(data), listOf(mimeType)).first()
+        val shouldIntercept = decisionTable
+            .matchingTemplates(OP_INSERT, callingPackage)
+            .shouldIntercept(data, mimeType)
         if (shouldIntercept) {
             param.result = null
         }
 
         /** RECORD */
-        if (service.rootSp.getBoolean(
-                service.resources.getString(R.string.usage_record_key), true
-            )
-        ) {
-            service.dao.insert(
+        if (decisionTable.isRecordEnabled) {
+            service.recordWriter.write(
                 MediaProviderRecord(
                     0,
                     System.currentTimeMillis(),
-                    param.callingPackage,
+                    callingPackage,
                     match,
                     OP_INSERT,
                     listOf(data),
@@ -101,7 +104,6 @@ class InsertHooker(private val service: ManagerService) : XC_MethodHook(), Media
                     listOf(shouldIntercept)
                 )
             )
-            service.dispatchMediaChange()
         }
     }
 
@@ -173,54 +175,30 @@ class InsertHooker(private val service: ManagerService) : XC_MethodHook(), Media
             }
         }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            val resolvedVolumeName = XposedHelpers.callMethod(
-                thisObject, "resolveVolumeName", uri
-            ) as String
-            val volumePath = XposedHelpers.callMethod(
-                thisObject, "getVolumePath", resolvedVolumeName
-            ) as File
-
-            val fileUtilsClass = XposedHelpers.findClass(
-                "com.android.providers.media.util.FileUtils", service.classLoader
-            )
-            val isFuseThread = XposedHelpers.callMethod(thisObject, "isFuseThread")
-                    as Boolean
-            XposedHelpers.callStaticMethod(
-                fileUtilsClass, "sanitizeValues", values, !isFuseThread
-            )
-            XposedHelpers.callStaticMethod(
-                fileUtilsClass, "computeDataFromValues", values, volumePath, isFuseThread
-            )
+            val resolvedVolumeName = bridge.resolveVolumeName(thisObject, uri)
+            val volumePath = bridge.getVolumePath(thisObject, resolvedVolumeName)
+
+            val isFuseThread = bridge.isFuseThread(thisObject)
+            bridge.sanitizeValues(values, !isFuseThread)
+            bridge.computeDataFromValues(values, volumePath, isFuseThread)
 
             var res = File(values.getAsString(MediaStore.MediaColumns.DATA))
-            res = XposedHelpers.callStaticMethod(
-                fileUtilsClass, "buildUniqueFile", res.parentFile, mimeType, res.name
-            ) as File
+            res = bridge.buildUniqueFile(res.parentFile, mimeType, res.name)
 
             values.put(MediaStore.MediaColumns.DATA, res.absolutePath)
         } else {
-            val resolvedVolumeName = XposedHelpers.callMethod(
-                thisObject, "resolveVolumeName", uri
-            ) as String
+            val resolvedVolumeName = bridge.resolveVolumeName(thisObject, uri)
 
-            val relativePath = XposedHelpers.callMethod(
-                thisObject, "sanitizePath",
-                values.getAsString(MediaStore.MediaColumns.RELATIVE_PATH)
+            val relativePath = bridge.sanitizePath(
+                thisObject, values.getAsString(MediaStore.MediaColumns.RELATIVE_PATH)
             )
-            val displayName = XposedHelpers.callMethod(
-                thisObject, "sanitizeDisplayName",
-                values.getAsString(MediaStore.MediaColumns.DISPLAY_NAME)
+            val displayName = bridge.sanitizeDisplayName(
+                thisObject, values.getAsString(MediaStore.MediaColumns.DISPLAY_NAME)
             )
 
-            var res = XposedHelpers.callMethod(
-                thisObject, "getVolumePath", resolvedVolumeName
-            ) as File
-            res = XposedHelpers.callStaticMethod(
-                Environment::class.java, "buildPath", res, relativePath
-            ) as File
-            res = XposedHelpers.callStaticMethod(
-                FileUtils::class.java, "buildUniqueFile", res, mimeType, displayName
-            ) as File
+            var res = bridge.getVolumePath(thisObject, resolvedVolumeName)
+            res = bridge.buildPath(res, relativePath)
+            res = bridge.buildUniqueFile(res, mimeType, displayName)
 
             values.put(MediaStore.MediaColumns.DATA, res.absolutePath)
         }
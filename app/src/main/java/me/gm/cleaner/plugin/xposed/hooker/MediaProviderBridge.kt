@@ -0,0 +1,349 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.xposed.hooker
+
+import android.content.ContentResolver
+import android.content.ContentValues
+import android.database.Cursor
+import android.net.Uri
+import android.os.Build
+import android.os.Bundle
+import android.os.CancellationSignal
+import android.os.Environment
+import android.os.FileUtils
+import de.robv.android.xposed.XposedHelpers
+import java.io.File
+import java.lang.reflect.Field
+import java.lang.reflect.Method
+import java.util.function.Consumer
+import java.util.function.Function
+
+/**
+ * Resolves every MediaProvider method, field and class the hookers rely on once, when the
+ * MediaProvider is loaded, so that no lookup by name is left on the binder threads.
+ * Construction throws [NoSuchMethodError], [NoSuchFieldError] or
+ * [XposedHelpers.ClassNotFoundError] if the running MediaProvider doesn't match our expectations.
+ *
+ * Methods invoked through this class throw [java.lang.reflect.InvocationTargetException] if the
+ * MediaProvider itself throws.
+ */
+class MediaProviderBridge(classLoader: ClassLoader) {
+    val mediaProviderClass: Class<*> = XposedHelpers.findClass(MEDIA_PROVIDER, classLoader)
+
+    /** PROCESS */
+    private val nativeIsFuseThreadMethod: Method? = try {
+        XposedHelpers.findMethodExact(
+            XposedHelpers.findClass(FUSE_DAEMON, classLoader), "native_is_fuse_thread"
+        )
+    } catch (e: XposedHelpers.ClassNotFoundError) {
+        null
+    }
+    private val callingIdentityField: Field =
+        XposedHelpers.findField(mediaProviderClass, "mCallingIdentity")
+    private val getPackageNameMethod: Method = XposedHelpers.findMethodExact(
+        XposedHelpers.findClass(LOCAL_CALLING_IDENTITY, classLoader), "getPackageName"
+    )
+    private val isCallingPackageAllowedHiddenMethod: Method =
+        XposedHelpers.findMethodExact(mediaProviderClass, "isCallingPackageAllowedHidden")
+    private val getCallingPackageTargetSdkVersionMethod: Method? = sinceR {
+        XposedHelpers.findMethodExact(mediaProviderClass, "getCallingPackageTargetSdkVersion")
+    }
+
+    /** QUERY */
+    private val matchUriMethod: Method = XposedHelpers.findMethodBestMatch(
+        mediaProviderClass, "matchUri", Uri::class.java, Boolean::class.javaPrimitiveType
+    )
+    private val getDatabaseForUriMethod: Method =
+        XposedHelpers.findMethodBestMatch(mediaProviderClass, "getDatabaseForUri", Uri::class.java)
+    private val getWritableDatabaseMethod: Method =
+        XposedHelpers.findMethodExact(getDatabaseForUriMethod.returnType, "getWritableDatabase")
+    private val getQueryBuilderMethod: Method = when {
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.R -> XposedHelpers.findMethodBestMatch(
+            mediaProviderClass, "getQueryBuilder", Int::class.javaPrimitiveType,
+            Int::class.javaPrimitiveType, Uri::class.java, Bundle::class.java,
+            Consumer::class.java
+        )
+
+        Build.VERSION.SDK_INT == Build.VERSION_CODES.Q -> XposedHelpers.findMethodBestMatch(
+            mediaProviderClass, "getQueryBuilder", Int::class.javaPrimitiveType, Uri::class.java,
+            Int::class.javaPrimitiveType, Bundle::class.java
+        )
+
+        else -> throw UnsupportedOperationException()
+    }
+
+    /** Query overload taking a [Bundle] of query args, since R. */
+    private val queryWithArgsMethod: Method? = sinceR {
+        XposedHelpers.findMethodBestMatch(
+            getQueryBuilderMethod.returnType, "query", getDatabaseForUriMethod.returnType,
+            Array<String>::class.java, Bundle::class.java, CancellationSignal::class.java
+        )
+    }
+
+    /** Null if the query builder can't take extra where clauses, the SQL pushdown is off then. */
+    private val appendWhereStandaloneMethod: Method? = sinceR {
+        try {
+            XposedHelpers.findMethodExact(
+                getQueryBuilderMethod.returnType, "appendWhereStandalone", CharSequence::class.java
+            )
+        } catch (e: NoSuchMethodError) {
+            null
+        }
+    }
+
+    /** Query overload taking raw SQL clauses. Its first parameter is a helper since R. */
+    private val queryWithClausesMethod: Method = XposedHelpers.findMethodBestMatch(
+        getQueryBuilderMethod.returnType, "query",
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) getDatabaseForUriMethod.returnType
+        else getWritableDatabaseMethod.returnType,
+        Array<String>::class.java, String::class.java, Array<String>::class.java,
+        String::class.java, String::class.java, String::class.java, String::class.java,
+        CancellationSignal::class.java
+    )
+    private val ensureCustomCollatorMethod: Method? = sinceR {
+        XposedHelpers.findMethodBestMatch(
+            mediaProviderClass, "ensureCustomCollator", String::class.java
+        )
+    }
+    private val createSqlSortClauseMethod: Method? = onQ {
+        XposedHelpers.findMethodExact(
+            ContentResolver::class.java, "createSqlSortClause", Bundle::class.java
+        )
+    }
+
+    /** DATABASE UTILS */
+    private val databaseUtilsClass: Class<*>? = sinceR {
+        XposedHelpers.findClass(DATABASE_UTILS, classLoader)
+    }
+    private val resolveQueryArgsMethod: Method? = sinceR {
+        XposedHelpers.findMethodBestMatch(
+            databaseUtilsClass, "resolveQueryArgs", Bundle::class.java, Consumer::class.java,
+            Function::class.java
+        )
+    }
+    private val recoverAbusiveSortOrderMethod: Method? = sinceR {
+        XposedHelpers.findMethodBestMatch(
+            databaseUtilsClass, "recoverAbusiveSortOrder", Bundle::class.java
+        )
+    }
+    private val recoverAbusiveLimitMethod: Method? = sinceR {
+        XposedHelpers.findMethodBestMatch(
+            databaseUtilsClass, "recoverAbusiveLimit", Uri::class.java, Bundle::class.java
+        )
+    }
+    private val recoverAbusiveSelectionMethod: Method? = sinceR {
+        XposedHelpers.findMethodBestMatch(
+            databaseUtilsClass, "recoverAbusiveSelection", Bundle::class.java
+        )
+    }
+
+    /** INSERT */
+    private val resolveVolumeNameMethod: Method =
+        XposedHelpers.findMethodBestMatch(mediaProviderClass, "resolveVolumeName", Uri::class.java)
+    private val getVolumePathMethod: Method =
+        XposedHelpers.findMethodBestMatch(mediaProviderClass, "getVolumePath", String::class.java)
+    private val isFuseThreadMethod: Method? = sinceR {
+        XposedHelpers.findMethodExact(mediaProviderClass, "isFuseThread")
+    }
+    private val fileUtilsClass: Class<*>? = sinceR {
+        XposedHelpers.findClass(FILE_UTILS, classLoader)
+    }
+    private val sanitizeValuesMethod: Method? = sinceR {
+        XposedHelpers.findMethodBestMatch(
+            fileUtilsClass, "sanitizeValues", ContentValues::class.java,
+            Boolean::class.javaPrimitiveType
+        )
+    }
+    private val computeDataFromValuesMethod: Method? = sinceR {
+        XposedHelpers.findMethodBestMatch(
+            fileUtilsClass, "computeDataFromValues", ContentValues::class.java, File::class.java,
+            Boolean::class.javaPrimitiveType
+        )
+    }
+    private val buildUniqueFileMethod: Method = XposedHelpers.findMethodBestMatch(
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) fileUtilsClass
+        else FileUtils::class.java,
+        "buildUniqueFile", File::class.java, String::class.java, String::class.java
+    )
+    private val sanitizePathMethod: Method? = onQ {
+        XposedHelpers.findMethodBestMatch(mediaProviderClass, "sanitizePath", String::class.java)
+    }
+    private val sanitizeDisplayNameMethod: Method? = onQ {
+        XposedHelpers.findMethodBestMatch(
+            mediaProviderClass, "sanitizeDisplayName", String::class.java
+        )
+    }
+    private val buildPathMethod: Method? = onQ {
+        XposedHelpers.findMethodExact(
+            Environment::class.java, "buildPath", File::class.java, Array<String>::class.java
+        )
+    }
+
+    /** DELETE */
+    private val enforceCallingPermissionMethod: Method = when {
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.R -> XposedHelpers.findMethodBestMatch(
+            mediaProviderClass, "enforceCallingPermission", Uri::class.java, Bundle::class.java,
+            Boolean::class.javaPrimitiveType
+        )
+
+        Build.VERSION.SDK_INT == Build.VERSION_CODES.Q -> XposedHelpers.findMethodBestMatch(
+            mediaProviderClass, "enforceCallingPermission", Uri::class.java,
+            Boolean::class.javaPrimitiveType
+        )
+
+        else -> throw UnsupportedOperationException()
+    }
+
+    fun nativeIsFuseThread(): Boolean = nativeIsFuseThreadMethod?.invoke(null) as? Boolean ?: false
+
+    fun getCallingPackage(mediaProvider: Any): String =
+        getPackageNameMethod.invoke(
+            (callingIdentityField[mediaProvider] as ThreadLocal<*>).get()
+        ) as String
+
+    fun isCallingPackageAllowedHidden(mediaProvider: Any): Boolean =
+        isCallingPackageAllowedHiddenMethod.invoke(mediaProvider) as Boolean
+
+    fun getCallingPackageTargetSdkVersion(mediaProvider: Any): Int =
+        getCallingPackageTargetSdkVersionMethod!!.invoke(mediaProvider) as Int
+
+    fun matchUri(mediaProvider: Any, uri: Uri, allowHidden: Boolean): Int =
+        matchUriMethod.invoke(mediaProvider, uri, allowHidden) as Int
+
+    fun getDatabaseForUri(mediaProvider: Any, uri: Uri): Any =
+        getDatabaseForUriMethod.invoke(mediaProvider, uri)!!
+
+    fun getWritableDatabase(helper: Any): Any = getWritableDatabaseMethod.invoke(helper)!!
+
+    /**
+     * @param match parameters are ordered by SDK level, we take care of that.
+     * @param honored ignored before R.
+     */
+    fun getQueryBuilder(
+        mediaProvider: Any, type: Int, match: Int, uri: Uri, extras: Bundle?,
+        honored: Consumer<String>?
+    ): Any = when {
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ->
+            getQueryBuilderMethod.invoke(mediaProvider, type, match, uri, extras, honored)
+
+        else -> getQueryBuilderMethod.invoke(mediaProvider, type, uri, match, extras)
+    }!!
+
+    val canAppendWhere: Boolean
+        get() = appendWhereStandaloneMethod != null
+
+    /**
+     * Append a clause to the where clause of the query builder, ANDed with the existing ones.
+     */
+    fun appendWhereStandalone(qb: Any, inWhere: CharSequence) {
+        appendWhereStandaloneMethod!!.invoke(qb, inWhere)
+    }
+
+    fun query(
+        qb: Any, helper: Any, projection: Array<String>?, queryArgs: Bundle,
+        signal: CancellationSignal?
+    ): Cursor = queryWithArgsMethod!!.invoke(qb, helper, projection, queryArgs, signal) as Cursor
+
+    /**
+     * @param helperOrDb a DatabaseHelper since R, a SQLiteDatabase before.
+     */
+    fun query(
+        qb: Any, helperOrDb: Any, projection: Array<String>?, selection: String?,
+        selectionArgs: Array<String>?, groupBy: String?, having: String?, sortOrder: String?,
+        limit: String?, signal: CancellationSignal?
+    ): Cursor = queryWithClausesMethod.invoke(
+        qb, helperOrDb, projection, selection, selectionArgs, groupBy, having, sortOrder, limit,
+        signal
+    ) as Cursor
+
+    fun ensureCustomCollator(mediaProvider: Any, sortOrder: String): String =
+        ensureCustomCollatorMethod!!.invoke(mediaProvider, sortOrder) as String
+
+    fun createSqlSortClause(queryArgs: Bundle): String? =
+        createSqlSortClauseMethod!!.invoke(null, queryArgs) as String?
+
+    fun resolveQueryArgs(
+        queryArgs: Bundle, honored: Consumer<String>, collatorFactory: Function<String, String>
+    ) {
+        resolveQueryArgsMethod!!.invoke(null, queryArgs, honored, collatorFactory)
+    }
+
+    fun recoverAbusiveSortOrder(queryArgs: Bundle) {
+        recoverAbusiveSortOrderMethod!!.invoke(null, queryArgs)
+    }
+
+    fun recoverAbusiveLimit(uri: Uri, queryArgs: Bundle) {
+        recoverAbusiveLimitMethod!!.invoke(null, uri, queryArgs)
+    }
+
+    fun recoverAbusiveSelection(queryArgs: Bundle) {
+        recoverAbusiveSelectionMethod!!.invoke(null, queryArgs)
+    }
+
+    fun resolveVolumeName(mediaProvider: Any, uri: Uri): String =
+        resolveVolumeNameMethod.invoke(mediaProvider, uri) as String
+
+    fun getVolumePath(mediaProvider: Any, volumeName: String): File =
+        getVolumePathMethod.invoke(mediaProvider, volumeName) as File
+
+    fun isFuseThread(mediaProvider: Any): Boolean =
+        isFuseThreadMethod!!.invoke(mediaProvider) as Boolean
+
+    fun sanitizeValues(values: ContentValues, rewriteHiddenFileName: Boolean) {
+        sanitizeValuesMethod!!.invoke(null, values, rewriteHiddenFileName)
+    }
+
+    fun computeDataFromValues(values: ContentValues, volumePath: File, isForFuse: Boolean) {
+        computeDataFromValuesMethod!!.invoke(null, values, volumePath, isForFuse)
+    }
+
+    fun buildUniqueFile(parent: File?, mimeType: String?, displayName: String?): File =
+        buildUniqueFileMethod.invoke(null, parent, mimeType, displayName) as File
+
+    fun sanitizePath(mediaProvider: Any, path: String?): String? =
+        sanitizePathMethod!!.invoke(mediaProvider, path) as String?
+
+    fun sanitizeDisplayName(mediaProvider: Any, name: String?): String? =
+        sanitizeDisplayNameMethod!!.invoke(mediaProvider, name) as String?
+
+    fun buildPath(base: File, vararg segments: String?): File =
+        buildPathMethod!!.invoke(null, base, segments) as File
+
+    fun enforceCallingPermission(mediaProvider: Any, uri: Uri, extras: Bundle?, forWrite: Boolean) {
+        when {
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ->
+                enforceCallingPermissionMethod.invoke(mediaProvider, uri, extras, forWrite)
+
+            else -> enforceCallingPermissionMethod.invoke(mediaProvider, uri, forWrite)
+        }
+    }
+
+    private inline fun <T> sinceR(block: () -> T): T? =
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) block() else null
+
+    private inline fun <T> onQ(block: () -> T): T? =
+        if (Build.VERSION.SDK_INT == Build.VERSION_CODES.Q) block() else null
+
+    companion object {
+        const val MEDIA_PROVIDER = "com.android.providers.media.MediaProvider"
+        private const val FUSE_DAEMON = "com.android.providers.media.fuse.FuseDaemon"
+        private const val LOCAL_CALLING_IDENTITY =
+            "com.android.providers.media.LocalCallingIdentity"
+        private const val DATABASE_UTILS = "com.android.providers.media.util.DatabaseUtils"
+        private const val FILE_UTILS = "com.android.providers.media.util.FileUtils"
+    }
+}
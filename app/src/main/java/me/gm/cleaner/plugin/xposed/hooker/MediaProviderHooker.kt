@@ -18,40 +18,32 @@ package me.gm.cleaner.plugin.xposed.hooker
 
 import android.net.Uri
 import de.robv.android.xposed.XC_MethodHook
-import de.robv.android.xposed.XposedHelpers
 
 interface MediaProviderHooker {
+    val bridge: MediaProviderBridge
+
     fun XC_MethodHook.MethodHookParam.ensureMediaProvider() {
-        require(method.declaringClass.name == "com.android.providers.media.MediaProvider")
+        require(method.declaringClass == bridge.mediaProviderClass)
     }
 
     val XC_MethodHook.MethodHookParam.isFuseThread: Boolean
-        get() = try {
-            val fuseDaemonCls = XposedHelpers.findClass(
-                "com.android.providers.media.fuse.FuseDaemon", thisObject.javaClass.classLoader
-            )
-            XposedHelpers.callStaticMethod(fuseDaemonCls, "native_is_fuse_thread") as Boolean
-        } catch (e: XposedHelpers.ClassNotFoundError) {
-            false
-        }
+        get() = bridge.nativeIsFuseThread()
 
     val XC_MethodHook.MethodHookParam.callingPackage: String
         get() {
             ensureMediaProvider()
-            val threadLocal =
-                XposedHelpers.getObjectField(thisObject, "mCallingIdentity") as ThreadLocal<*>
-            return XposedHelpers.callMethod(threadLocal.get(), "getPackageName") as String
+            return bridge.getCallingPackage(thisObject)
         }
 
     val XC_MethodHook.MethodHookParam.isCallingPackageAllowedHidden: Boolean
         get() {
             ensureMediaProvider()
-            return XposedHelpers.callMethod(thisObject, "isCallingPackageAllowedHidden") as Boolean
+            return bridge.isCallingPackageAllowedHidden(thisObject)
         }
 
     fun XC_MethodHook.MethodHookParam.matchUri(uri: Uri, allowHidden: Boolean): Int {
         ensureMediaProvider()
-        return XposedHelpers.callMethod(thisObject, "matchUri", uri, allowHidden) as Int
+        return bridge.matchUri(thisObject, uri, allowHidden)
     }
 
     val IMAGES_MEDIA: Int
@@ -28,17 +28,23 @@ import android.provider.MediaStore.Files.FileColumns
 import android.util.ArraySet
 import androidx.core.os.bundleOf
 import de.robv.android.xposed.XC_MethodHook
-import de.robv.android.xposed.XposedHelpers
+import de.robv.android.xposed.XposedBridge
 import me.gm.cleaner.plugin.BuildConfig
-import me.gm.cleaner.plugin.R
 import me.gm.cleaner.plugin.dao.MediaProviderOperation.Companion.OP_QUERY
 import me.gm.cleaner.plugin.dao.MediaProviderRecord
+import me.gm.cleaner.plugin.model.MatchingTemplates
 import me.gm.cleaner.plugin.xposed.ManagerService
-import me.gm.cleaner.plugin.xposed.util.FilteredCursor
+import me.gm.cleaner.plugin.xposed.util.LazyFilteredCursor
+import me.gm.cleaner.plugin.xposed.util.MimeUtils
+import me.gm.cleaner.plugin.xposed.util.SqlPushdown
+import java.io.File
+import java.lang.reflect.InvocationTargetException
 import java.util.function.Consumer
 import java.util.function.Function
 
 class QueryHooker(private val service: ManagerService) : XC_MethodHook(), MediaProviderHooker {
+    override val bridge: MediaProviderBridge = service.bridge
+
     @Throws(Throwable::class)
     override fun beforeHookedMethod(param: MethodHookParam) {
         if (param.isFuseThread) {
@@ -50,91 +56,84 @@ class QueryHooker(private val service: ManagerService) : XC_MethodHook(), MediaP
         val queryArgs = param.args[2] as? Bundle ?: Bundle.EMPTY
         val signal = param.args[3] as? CancellationSignal
 
-        if (param.callingPackage in
+        val callingPackage = param.callingPackage
+        if (callingPackage in
             setOf("com.android.providers.media", "com.android.providers.media.module")
         ) {
             // Scanning files and internal queries.
             return
         }
+        if (isClientQuery(callingPackage, uri)) {
+            param.result = handleClientQuery()
+            return
+        }
+        val decisionTable = service.hookDecisionTable
+        if (!decisionTable.shouldHook(OP_QUERY, callingPackage)) {
+            // Nobody cares about this call.
+            return
+        }
 
         /** PARSE */
         val query = Bundle(queryArgs)
         query.remove(INCLUDED_DEFAULT_DIRECTORIES)
         val honoredArgs = ArraySet<String>()
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            val databaseUtilsClass = XposedHelpers.findClass(
-                "com.android.providers.media.util.DatabaseUtils", service.classLoader
-            )
-            XposedHelpers.callStaticMethod(
-                databaseUtilsClass, "resolveQueryArgs", query, object : Consumer<String> {
+            bridge.resolveQueryArgs(
+                query, object : Consumer<String> {
                     override fun accept(t: String) {
                         honoredArgs.add(t)
                     }
                 }, object : Function<String, String> {
-                    override fun apply(t: String) = XposedHelpers.callMethod(
-                        param.thisObject, "ensureCustomCollator", t
-                    ) as String
+                    override fun apply(t: String) =
+                        bridge.ensureCustomCollator(param.thisObject, t)
                 }
             )
         }
-        if (isClientQuery(param.callingPackage, uri)) {
-            param.result = handleClientQuery(projection, query)
-            return
-        }
         val table = param.matchUri(uri, param.isCallingPackageAllowedHidden)
+        val matchingTemplates = decisionTable.matchingTemplates(OP_QUERY, callingPackage)
+        // Rows skipped by SQLite never reach us, so they can't be recorded.
+        val sqlPushdown = if (decisionTable.isSqlPushdownEnabled &&
+            !decisionTable.isRecordEnabled && bridge.canAppendWhere
+        ) buildSqlPushdown(table, matchingTemplates) else null
         val dataProjection = when {
-            projection == null -> null
+            projection == null || sqlPushdown != null -> projection
             table in setOf(IMAGES_THUMBNAILS, VIDEO_THUMBNAILS) -> projection + FileColumns.DATA
             else -> projection + arrayOf(FileColumns.DATA, FileColumns.MIME_TYPE)
         }
-        val helper = XposedHelpers.callMethod(param.thisObject, "getDatabaseForUri", uri)
-        val qb = when {
-            Build.VERSION.SDK_INT >= Build.VERSION_CODES.R -> XposedHelpers.callMethod(
-                param.thisObject, "getQueryBuilder", TYPE_QUERY, table, uri, query,
-                object : Consumer<String> {
-                    override fun accept(t: String) {
-                        honoredArgs.add(t)
-                    }
+        val helper = bridge.getDatabaseForUri(param.thisObject, uri)
+        val qb = bridge.getQueryBuilder(
+            param.thisObject, TYPE_QUERY, table, uri, query, object : Consumer<String> {
+                override fun accept(t: String) {
+                    honoredArgs.add(t)
                 }
-            )
-
-            Build.VERSION.SDK_INT == Build.VERSION_CODES.Q -> XposedHelpers.callMethod(
-                param.thisObject, "getQueryBuilder", TYPE_QUERY, uri, table, query
-            )
-
-            else -> throw UnsupportedOperationException()
+            }
+        )
+        if (!sqlPushdown.isNullOrEmpty()) {
+            bridge.appendWhereStandalone(qb, sqlPushdown)
         }
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            val targetSdkVersion = XposedHelpers.callMethod(
-                param.thisObject, "getCallingPackageTargetSdkVersion"
-            ) as Int
-            val databaseUtilsClass = XposedHelpers.findClass(
-                "com.android.providers.media.util.DatabaseUtils", service.classLoader
-            )
+            val targetSdkVersion = bridge.getCallingPackageTargetSdkVersion(param.thisObject)
             if (targetSdkVersion < Build.VERSION_CODES.R) {
                 // Some apps are abusing "ORDER BY" clauses to inject "LIMIT"
                 // clauses; gracefully lift them out.
-                XposedHelpers.callStaticMethod(databaseUtilsClass, "recoverAbusiveSortOrder", query)
+                bridge.recoverAbusiveSortOrder(query)
 
                 // Some apps are abusing the Uri query parameters to inject LIMIT
                 // clauses; gracefully lift them out.
-                XposedHelpers.callStaticMethod(
-                    databaseUtilsClass, "recoverAbusiveLimit", uri, query
-                )
+                bridge.recoverAbusiveLimit(uri, query)
             }
             if (targetSdkVersion < Build.VERSION_CODES.Q) {
                 // Some apps are abusing the "WHERE" clause by injecting "GROUP BY"
                 // clauses; gracefully lift them out.
-                XposedHelpers.callStaticMethod(databaseUtilsClass, "recoverAbusiveSelection", query)
+                bridge.recoverAbusiveSelection(query)
             }
         }
 
         val c = try {
             when {
-                Build.VERSION.SDK_INT >= Build.VERSION_CODES.R -> XposedHelpers.callMethod(
-                    qb, "query", helper, dataProjection, query, signal
-                )
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ->
+                    bridge.query(qb, helper, dataProjection, query, signal)
 
                 Build.VERSION.SDK_INT == Build.VERSION_CODES.Q -> {
                     val selection = query.getString(ContentResolver.QUERY_ARG_SQL_SELECTION)
@@ -143,9 +142,7 @@ class QueryHooker(private val service: ManagerService) : XC_MethodHook(), MediaP
                     val sortOrder =
                         query.getString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER) ?: let {
                             if (query.containsKey(ContentResolver.QUERY_ARG_SORT_COLUMNS)) {
-                                XposedHelpers.callStaticMethod(
-                                    ContentResolver::class.java, "createSqlSortClause", query
-                                ) as String?
+                                bridge.createSqlSortClause(query)
                             } else {
                                 null
                             }
@@ -155,68 +152,128 @@ class QueryHooker(private val service: ManagerService) : XC_MethodHook(), MediaP
                     val having = null
                     val limit = uri.getQueryParameter("limit")
 
-                    XposedHelpers.callMethod(
-                        qb, "query", XposedHelpers.callMethod(helper, "getWritableDatabase"),
-                        dataProjection, selection, selectionArgs, groupBy, having, sortOrder, limit,
-                        signal
+                    bridge.query(
+                        qb, bridge.getWritableDatabase(helper), dataProjection, selection,
+                        selectionArgs, groupBy, having, sortOrder, limit, signal
                     )
                 }
 
                 else -> throw UnsupportedOperationException()
-            } as Cursor
-        } catch (e: XposedHelpers.InvocationTargetError) {
+            }
+        } catch (e: InvocationTargetException) {
             // IllegalArgumentException that thrown from the media provider. Nothing I can do.
             return
         }
-        if (c.count == 0) {
-            // querying nothing.
-            c.close()
+        if (sqlPushdown != null) {
+            // SQLite has skipped the intercepted rows and honored the limit by itself.
+            param.result = c
             return
         }
-        val dataColumn = c.getColumnIndexOrThrow(FileColumns.DATA)
-        val mimeTypeColumn = c.getColumnIndex(FileColumns.MIME_TYPE)
 
-        val data = mutableListOf<String>()
-        val mimeType = mutableListOf<String>()
-        while (c.moveToNext()) {
-            data += c.getString(dataColumn)
-            mimeType += c.getString(mimeTypeColumn)
-        }
+        /** INTERCEPT AND RECORD */
+        // Rows are evaluated as the client reads them, the record is written once all rows
+        // have been seen or the cursor is closed. An empty source needs no special case, the
+        // filter sees no row and records nothing.
+        param.result = LazyFilteredCursor(
+            c, QueryRowFilter(
+                callingPackage, table, matchingTemplates, decisionTable.isRecordEnabled,
+                c.getColumnIndexOrThrow(FileColumns.DATA), c.getColumnIndex(FileColumns.MIME_TYPE)
+            )
+        )
+    }
 
-        /** INTERCEPT */
-        val shouldIntercept = service.ruleSp.templates
-            .filterTemplate(javaClass, param.callingPackage)
-            .applyTemplates(data, mimeType)
-        if (shouldIntercept.isEmpty()) {
-            c.close()
+    /**
+     * Turn the templates into a where clause that rejects the same rows as
+     * [MatchingTemplates.shouldIntercept] does.
+     * @return null if the templates can't be expressed in SQL for this table, an empty string if
+     * nothing needs to be rejected.
+     */
+    private fun buildSqlPushdown(table: Int, matchingTemplates: MatchingTemplates): String? {
+        val viewMediaType = when (table) {
+            IMAGES_MEDIA, IMAGES_MEDIA_ID -> FileColumns.MEDIA_TYPE_IMAGE
+            AUDIO_MEDIA, AUDIO_MEDIA_ID -> FileColumns.MEDIA_TYPE_AUDIO
+            VIDEO_MEDIA, VIDEO_MEDIA_ID -> FileColumns.MEDIA_TYPE_VIDEO
+            FILES, FILES_ID -> null
+            else -> return null
+        }
+        if (viewMediaType != null) {
+            // These views don't expose media_type, but all of their rows share the same one.
+            if (!matchingTemplates.isMediaTypePermitted(viewMediaType)) {
+                return "0"
+            }
         } else {
-            c.moveToFirst()
-            val filter = shouldIntercept
-                .mapIndexedNotNull { index, b ->
-                    if (!b) index else null
-                }
-                .toIntArray()
-            param.result = FilteredCursor.createUsingFilter(c, filter)
+            val permitted = MEDIA_TYPES.filter { matchingTemplates.isMediaTypePermitted(it) }
+            if (permitted.isEmpty()) {
+                return "0"
+            }
+            if (permitted.size < MEDIA_TYPES.size) {
+                // MediaProvider stores media_type NONE for files in hidden and .nomedia
+                // directories whatever their mime_type, while templates judge the media type by
+                // mime_type. Only the row filter can tell those apart.
+                return null
+            }
         }
+        return SqlPushdown.excludePaths(FileColumns.DATA, matchingTemplates.filterPathList)
+            ?.joinToString(" AND ")
+    }
 
-        /** RECORD */
-        if (service.rootSp.getBoolean(
-                service.resources.getString(R.string.usage_record_key), true
-            )
-        ) {
-            service.dao.insert(
+    private inner class QueryRowFilter(
+        private val callingPackage: String,
+        private val table: Int,
+        private val matchingTemplates: MatchingTemplates,
+        private val isRecordEnabled: Boolean,
+        private val dataColumn: Int,
+        private val mimeTypeColumn: Int,
+    ) : LazyFilteredCursor.RowFilter {
+        private val data = mutableListOf<String>()
+        private val mimeType = mutableListOf<String?>()
+        private val intercepted = mutableListOf<Boolean>()
+        private var hasFailed = false
+
+        /**
+         * Runs inside the client's cursor calls, where a throw would break the client's query.
+         * Fails open: a row that can't be evaluated is shown, the first failure is logged.
+         */
+        override fun shouldHide(source: Cursor): Boolean = try {
+            evaluate(source)
+        } catch (e: Exception) {
+            if (!hasFailed) {
+                hasFailed = true
+                XposedBridge.log(e)
+            }
+            false
+        }
+
+        private fun evaluate(source: Cursor): Boolean {
+            val data: String? = source.getString(dataColumn)
+            // Thumbnail tables don't have a mime type column.
+            val mimeType = if (mimeTypeColumn != -1) source.getString(mimeTypeColumn)
+            else data?.let { MimeUtils.resolveMimeType(File(it)) }
+            val shouldIntercept = matchingTemplates.shouldIntercept(data, mimeType)
+            if (isRecordEnabled && data != null && this.data.size < MAX_SIZE) {
+                this.data += data
+                this.mimeType += mimeType
+                intercepted += shouldIntercept
+            }
+            return shouldIntercept
+        }
+
+        override fun onScanFinished() {
+            if (!isRecordEnabled || data.isEmpty()) {
+                return
+            }
+            service.recordWriter.write(
                 MediaProviderRecord(
                     0,
                     System.currentTimeMillis(),
-                    param.callingPackage,
+                    callingPackage,
                     table,
                     OP_QUERY,
-                    if (data.size < MAX_SIZE) data else data.subList(0, MAX_SIZE),
+                    data,
                     mimeType,
-                    shouldIntercept
+                    intercepted
                 )
             )
-            service.dispatchMediaChange()
         }
     }
 
@@ -226,25 +283,11 @@ class QueryHooker(private val service: ManagerService) : XC_MethodHook(), MediaP
     /**
      * This function handles queries from the client. It takes effect when calling package is
      * [BuildConfig.APPLICATION_ID] and query Uri is [MediaStore.Images.Media.INTERNAL_CONTENT_URI].
-     * @param table We regard projection as table name.
-     * @param queryArgs We regard selection as start time millis, sort order as end time millis,
-     * selection args as package names.
-     * @return Returns an empty [Cursor] with [ManagerService]'s [android.os.IBinder] in its extras
-     * when queryArgs is empty. Returns a [Cursor] queried from the [MediaProviderRecordDatabase]
-     * when at least table name, start time millis and end time millis are declared.
-     * @throws [NullPointerException] or [IllegalArgumentException] when we don't know how to
-     * handle the query.
+     * @return Returns an empty [Cursor] with [ManagerService]'s [android.os.IBinder] in its extras,
+     * everything else goes through the binder.
      */
-    private fun handleClientQuery(table: Array<String>?, queryArgs: Bundle): Cursor {
-        if (table == null || queryArgs.isEmpty) {
-            return MatrixCursor(arrayOf("binder")).apply {
-                extras = bundleOf("me.gm.cleaner.plugin.cursor.extra.BINDER" to service)
-            }
-        }
-        val start = queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SELECTION)!!.toLong()
-        val end = queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER)!!.toLong()
-        val packageNames = queryArgs.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS)
-        return service.dao.loadForTimeMillis(start, end, *table.map { it.toInt() }.toIntArray())
+    private fun handleClientQuery(): Cursor = MatrixCursor(arrayOf("binder")).apply {
+        extras = bundleOf("me.gm.cleaner.plugin.cursor.extra.BINDER" to service)
     }
 
     companion object {
@@ -252,5 +295,12 @@ class QueryHooker(private val service: ManagerService) : XC_MethodHook(), MediaP
         private const val TYPE_QUERY = 0
 
         private const val MAX_SIZE = 1000
+
+        /** Media types [MimeUtils.resolveMediaType] may return. */
+        private val MEDIA_TYPES = listOf(
+            FileColumns.MEDIA_TYPE_NONE, FileColumns.MEDIA_TYPE_IMAGE, FileColumns.MEDIA_TYPE_AUDIO,
+            FileColumns.MEDIA_TYPE_VIDEO, FileColumns.MEDIA_TYPE_PLAYLIST,
+            FileColumns.MEDIA_TYPE_SUBTITLE, FileColumns.MEDIA_TYPE_DOCUMENT
+        )
     }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.xposed.util;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+
+import java.util.Arrays;
+
+/**
+ * Wraps a Cursor and hides the rows rejected by a {@link RowFilter}. Unlike {@link FilteredCursor},
+ * rows are evaluated one {@link CursorWindow} at a time as the client moves forward, only the
+ * positions of the visible rows are kept, and the source is scanned to its end only when
+ * {@link #getCount()} or {@link #moveToLast()} requires it.
+ */
+public class LazyFilteredCursor extends CursorWrapper {
+    /** Rows evaluated at once when the source isn't backed by a CursorWindow. */
+    private static final int FALLBACK_SCAN_SIZE = 256;
+
+    public interface RowFilter {
+        /**
+         * Return true to hide the current row of the source Cursor. Rows are presented in order,
+         * each row exactly once.
+         */
+        boolean shouldHide(Cursor source);
+
+        /**
+         * Called once, either when the source has been scanned to its end, or when the cursor
+         * is closed before that.
+         */
+        void onScanFinished();
+    }
+
+    private final Cursor mCursor;
+    private final RowFilter mFilter;
+    private int[] mFilterMap = new int[FALLBACK_SCAN_SIZE];
+    private int mFilteredCount;
+    private int mScannedCount;
+    private boolean mScanFinished;
+    private int mPos = -1;
+
+    public LazyFilteredCursor(Cursor cursor, RowFilter filter) {
+        super(cursor);
+        mCursor = cursor;
+        mFilter = filter;
+    }
+
+    /**
+     * Evaluate rows until the visible row at position exists or the source is exhausted.
+     *
+     * @return true if the visible row at position exists.
+     */
+    private boolean ensureRow(int position) {
+        if (position < mFilteredCount) {
+            return true;
+        }
+        while (position >= mFilteredCount && !mScanFinished) {
+            scanNextWindow();
+        }
+        // Scanning moved the source, restore it for the getters.
+        if (mPos >= 0 && mPos < mFilteredCount) {
+            mCursor.moveToPosition(mFilterMap[mPos]);
+        }
+        return position < mFilteredCount;
+    }
+
+    private void scanNextWindow() {
+        if (!mCursor.moveToPosition(mScannedCount)) {
+            finishScan();
+            return;
+        }
+        int end = mScannedCount + FALLBACK_SCAN_SIZE;
+        if (mCursor instanceof AbstractWindowedCursor) {
+            final CursorWindow window = ((AbstractWindowedCursor) mCursor).getWindow();
+            if (window != null && window.getNumRows() > 0) {
+                end = Math.max(mScannedCount + 1, window.getStartPosition() + window.getNumRows());
+            }
+        }
+        do {
+            if (!mFilter.shouldHide(mCursor)) {
+                if (mFilteredCount == mFilterMap.length) {
+                    mFilterMap = Arrays.copyOf(mFilterMap, mFilterMap.length * 2);
+                }
+                mFilterMap[mFilteredCount++] = mScannedCount;
+            }
+            mScannedCount++;
+        } while (mScannedCount < end && mCursor.moveToNext());
+        if (mCursor.isAfterLast()) {
+            finishScan();
+        }
+    }
+
+    private void finishScan() {
+        if (!mScanFinished) {
+            mScanFinished = true;
+            mFilter.onScanFinished();
+        }
+    }
+
+    @Override
+    public int getCount() {
+        ensureRow(Integer.MAX_VALUE - 1);
+        return mFilteredCount;
+    }
+
+    @Override
+    public int getPosition() {
+        return mPos;
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        if (position < 0) {
+            mPos = -1;
+            return false;
+        }
+        if (!ensureRow(position)) {
+            mPos = mFilteredCount;
+            return false;
+        }
+        final boolean moved = mCursor.moveToPosition(mFilterMap[position]);
+        mPos = moved ? position : -1;
+        return moved;
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(mPos + offset);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(getCount() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(mPos + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(mPos - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return mPos == 0 && ensureRow(0);
+    }
+
+    @Override
+    public boolean isLast() {
+        return mPos >= 0 && ensureRow(mPos) && !ensureRow(mPos + 1);
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return mPos == -1 || !ensureRow(0);
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return !ensureRow(Math.max(mPos, 0));
+    }
+
+    @Override
+    public void close() {
+        finishScan();
+        super.close();
+    }
+
+    @Override
+    @Deprecated
+    public boolean requery() {
+        throw new UnsupportedOperationException();
+    }
+}
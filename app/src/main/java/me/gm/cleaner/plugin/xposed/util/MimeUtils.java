@@ -27,8 +27,24 @@ import androidx.annotation.Nullable;
 import java.io.File;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MimeUtils {
+    private static final int MEDIA_TYPE_CACHE_CAPACITY = 256;
+    private static final ConcurrentHashMap<String, Integer> sMediaTypeCache =
+            new ConcurrentHashMap<>();
+
+    static {
+        for (String mimeType : new String[]{
+                "image/jpeg", "image/png", "image/gif", "image/webp", "image/heic", "image/heif",
+                "image/bmp", "video/mp4", "video/3gpp", "video/webm", "video/x-matroska",
+                "audio/mpeg", "audio/mp4", "audio/aac", "audio/ogg", "audio/flac", "audio/x-wav",
+                "audio/mpegurl", "text/plain", "application/pdf", "application/octet-stream",
+        }) {
+            sMediaTypeCache.put(mimeType, resolveMediaType(mimeType));
+        }
+    }
+
     /**
      * Variant of {@link Objects#equals(Object, Object)} but which tests with
      * case-insensitivity.
@@ -96,6 +112,24 @@ public class MimeUtils {
         }
     }
 
+    /**
+     * Variant of {@link #resolveMediaType(String)} for hot paths that see the same handful of MIME
+     * types over and over. Results are remembered in a bounded cache, MIME types seen after the
+     * cache is full are resolved every time.
+     */
+    public static int resolveMediaTypeCached(@Nullable String mimeType) {
+        if (mimeType == null) return FileColumns.MEDIA_TYPE_NONE;
+
+        final Integer cached = sMediaTypeCache.get(mimeType);
+        if (cached != null) return cached;
+
+        final int mediaType = resolveMediaType(mimeType);
+        if (sMediaTypeCache.size() < MEDIA_TYPE_CACHE_CAPACITY) {
+            sMediaTypeCache.put(mimeType, mediaType);
+        }
+        return mediaType;
+    }
+
     /**
      * Resolve the {@link FileColumns#FORMAT} of the given MIME type. Note that
      * since this column isn't public API, we're okay only getting very rough
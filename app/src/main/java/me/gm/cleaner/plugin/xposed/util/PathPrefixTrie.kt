@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.xposed.util
+
+import java.io.File
+
+/**
+ * Case-insensitive set of parent paths that answers [FileUtils.contains] for all of them at once,
+ * in time proportional to the length of the child path and without allocating.
+ */
+class PathPrefixTrie(parents: Iterable<String>) {
+    private val root: Node
+    private val containsEverything: Boolean
+
+    init {
+        val builder = Builder()
+        var containsEverything = false
+        parents.forEach { parent ->
+            if (parent == File.separator) {
+                containsEverything = true
+            } else {
+                builder.add(parent)
+            }
+        }
+        root = builder.build()
+        this.containsEverything = containsEverything
+    }
+
+    val isEmpty: Boolean
+        get() = !containsEverything && root.isLeaf
+
+    /**
+     * @return true if [FileUtils.contains] returns true for any of the parents and [child].
+     */
+    fun containsChild(child: String): Boolean {
+        if (containsEverything) {
+            return true
+        }
+        var node = root
+        for (i in child.indices) {
+            if (node.isTerminal && child[i] == File.separatorChar) {
+                return true
+            }
+            node = node.child(fold(child[i])) ?: return false
+        }
+        return node.isTerminal
+    }
+
+    private class Node(
+        @JvmField val isTerminal: Boolean,
+        private val keys: CharArray,
+        private val children: Array<Node>,
+    ) {
+        val isLeaf: Boolean
+            get() = keys.isEmpty()
+
+        fun child(c: Char): Node? {
+            var low = 0
+            var high = keys.size - 1
+            while (low <= high) {
+                val mid = (low + high) ushr 1
+                val key = keys[mid]
+                when {
+                    key < c -> low = mid + 1
+                    key > c -> high = mid - 1
+                    else -> return children[mid]
+                }
+            }
+            return null
+        }
+    }
+
+    private class Builder {
+        private var isTerminal = false
+        private val children = sortedMapOf<Char, Builder>()
+
+        fun add(path: String) {
+            var builder = this
+            path.forEach { c ->
+                builder = builder.children.getOrPut(fold(c)) { Builder() }
+            }
+            builder.isTerminal = true
+        }
+
+        fun build(): Node = Node(
+            isTerminal,
+            children.keys.toCharArray(),
+            children.values.map { it.build() }.toTypedArray()
+        )
+    }
+
+    companion object {
+        /** Same folding as [String.regionMatches] with ignoreCase. */
+        private fun fold(c: Char): Char = Character.toLowerCase(Character.toUpperCase(c))
+    }
+}
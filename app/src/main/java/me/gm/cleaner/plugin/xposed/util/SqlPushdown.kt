@@ -0,0 +1,55 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.xposed.util
+
+import android.database.DatabaseUtils
+import java.io.File
+
+object SqlPushdown {
+
+    /**
+     * Build where clauses that reject the rows of [column] under any of [parents], the same rows
+     * [FileUtils.contains] and [PathPrefixTrie.containsChild] consider children.
+     * @return null if the parents can't be expressed in SQL, `["0"]` if every row is under them.
+     */
+    fun excludePaths(column: String, parents: List<String>): List<String>? {
+        val clauses = mutableListOf<String>()
+        parents.forEach { parent ->
+            if (parent == File.separator) {
+                return listOf("0")
+            }
+            if (parent.any { it.code >= 0x80 }) {
+                // LIKE only folds the case of ASCII characters.
+                return null
+            }
+            val pattern = escapeLike(parent)
+            clauses += "$column NOT LIKE ${DatabaseUtils.sqlEscapeString(pattern)} ESCAPE '\\'"
+            clauses += "$column NOT LIKE " +
+                    "${DatabaseUtils.sqlEscapeString(pattern + File.separator + "%")} ESCAPE '\\'"
+        }
+        return clauses
+    }
+
+    private fun escapeLike(arg: String): String = buildString(arg.length) {
+        arg.forEach { c ->
+            if (c == '%' || c == '_' || c == '\\') {
+                append('\\')
+            }
+            append(c)
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.dao
+
+import android.app.Application
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Checks that the queries run on every page load, search, record write and purge are served by
+ * an index, and that every index is used by at least one of them. The DAO methods are called on
+ * an in-memory database and the statements Room runs for them are captured and explained, so the
+ * plans follow the queries as they are declared in [MediaProviderRecordDao].
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class, sdk = [34])
+class QueryPlanTest {
+    private lateinit var database: MediaProviderRecordDatabase
+    private lateinit var dao: MediaProviderRecordDao
+    private val statements = mutableListOf<Pair<String, List<Any?>>>()
+
+    private val operations = listOf(0, 1, 2)
+    private val ids = listOf(1L, 2L, 3L)
+
+    private val hotQueries = buildMap<String, MediaProviderRecordDao.() -> Unit> {
+        put("loadEntitiesPage") { loadEntitiesPage(0, 9, operations, 9, 9, 50) }
+        put("loadEntitiesPage, one operation") { loadEntitiesPage(0, 9, listOf(0), 9, 9, 50) }
+        put("loadPathsOf") { loadPathsOf(ids) }
+        put("loadEntitiesByIds") { loadEntitiesByIds(ids) }
+        put("loadKeysAfter") { loadKeysAfter(1, 0, 9, operations, 1000) }
+        put("searchKeys") {
+            searchKeys(0, 9, operations, "\"dcim\"*", listOf("a", "b"), 9, 9, 50)
+        }
+        put("searchKeysByPackage") {
+            searchKeysByPackage(0, 9, operations, listOf("a", "b"), 9, 9, 50)
+        }
+        put("packageUsageTimes") { packageUsageTimes(0, "a", "b") }
+        put("bumpPackageUsage") { bumpPackageUsage("a", 0) }
+        put("bumpHourlyUsage") { bumpHourlyUsage(0, "a", 0, 1) }
+        put("loadUsageBuckets") { loadUsageBuckets(0, 9, HourlyUsage.HOUR_MILLIS) }
+        put("deleteHourlyUsageBefore") { deleteHourlyUsageBefore(9) }
+        put("packagesForPath") { packagesForPath("a") }
+        put("findPathId") { findPathId("a", null) }
+        put("updateRepeat") { updateRepeat(1, 2, 9) }
+        put("loadIdsBefore") { loadIdsBefore(9, 200) }
+        put("loadOldestIds") { loadOldestIds(200) }
+        put("aggregateDailyUsage") { aggregateDailyUsage(ids) }
+        put("addDailyUsage") { addDailyUsage(0, "a", 0, 1) }
+        put("deletePathsOf") { deletePathsOf(ids) }
+        put("deleteRecords") { deleteRecords(ids) }
+        put("deleteUnusedPaths") { deleteUnusedPaths() }
+    }
+
+    /** Queries that have to read every row anyway. */
+    private val fullScans = setOf("deleteUnusedPaths")
+
+    @Before
+    fun setUp() {
+        database = Room
+            .inMemoryDatabaseBuilder(
+                ApplicationProvider.getApplicationContext(),
+                MediaProviderRecordDatabase::class.java
+            )
+            .setQueryCallback({ sql, bindArgs -> statements += sql to bindArgs }, Runnable::run)
+            .allowMainThreadQueries()
+            .build()
+        dao = database.mediaProviderRecordDao()
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    /** The plans of the queries the DAO method ran, transaction statements left out. */
+    private fun explain(query: MediaProviderRecordDao.() -> Unit): List<String> {
+        statements.clear()
+        dao.query()
+        val ran = statements.filter { (sql, _) ->
+            sql.startsWith("SELECT") || sql.startsWith("UPDATE") || sql.startsWith("DELETE")
+        }
+        assertTrue("No query captured", ran.isNotEmpty())
+        val db = database.openHelper.writableDatabase
+        return ran.flatMap { (sql, bindArgs) ->
+            db.query("EXPLAIN QUERY PLAN $sql", bindArgs.toTypedArray()).use { cursor ->
+                val detail = cursor.getColumnIndexOrThrow("detail")
+                List(cursor.count) {
+                    cursor.moveToNext()
+                    cursor.getString(detail)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun hotQueriesDontScanTables() {
+        hotQueries.filterKeys { it !in fullScans }.forEach { (name, query) ->
+            val plan = explain(query)
+            println("$name:\n  ${plan.joinToString("\n  ")}")
+            plan.forEach { step ->
+                // A bare SCAN reads the whole table, SCAN ... USING INDEX walks an index in
+                // order and stops at the limit, virtual tables are searched by their own index.
+                val isTableScan = step.startsWith("SCAN ") && !step.contains(" USING ") &&
+                        !step.contains("VIRTUAL TABLE") && !step.contains("CONSTANT ROW")
+                assertFalse("$name: $step", isTableScan)
+            }
+        }
+    }
+
+    @Test
+    fun pagesNeedNoSort() {
+        listOf("loadIdsBefore", "loadOldestIds").forEach { name ->
+            val plan = explain(hotQueries.getValue(name))
+            assertTrue("$name: $plan", plan.none { it.contains("TEMP B-TREE") })
+        }
+    }
+
+    @Test
+    fun everyIndexIsUsed() {
+        val indices = database.openHelper.writableDatabase
+            .query("SELECT name FROM sqlite_master WHERE type = 'index' AND name LIKE 'index_%'")
+            .use { cursor -> List(cursor.count) { cursor.moveToNext(); cursor.getString(0) } }
+        val plans = hotQueries.values.flatMap { explain(it) }
+        val unused = indices.filter { index -> plans.none { it.contains(index) } }
+        assertEquals(emptyList<String>(), unused)
+    }
+}
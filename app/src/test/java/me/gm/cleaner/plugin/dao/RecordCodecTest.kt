@@ -0,0 +1,111 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.dao
+
+import com.google.gson.Gson
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class RecordCodecTest {
+
+    private fun assertRoundTrip(list: List<String?>) {
+        assertEquals(list, RecordCodec.decodeStrings(RecordCodec.encodeStrings(list)))
+    }
+
+    @Test
+    fun emptyList() {
+        assertRoundTrip(emptyList())
+        val booleans = RecordCodec.encodeBooleans(emptyList())
+        assertEquals(emptyList<Boolean>(), RecordCodec.decodeBooleans(booleans))
+    }
+
+    @Test
+    fun sharedPrefixes() {
+        assertRoundTrip(
+            listOf(
+                "/storage/emulated/0/DCIM/Camera/IMG_0001.jpg",
+                "/storage/emulated/0/DCIM/Camera/IMG_0002.jpg",
+                "/storage/emulated/0/DCIM/Camera/IMG_0001.jpg",
+                "/storage/emulated/0/DCIM",
+                "/storage/emulated/0/DCIM/Camera/IMG_0003.jpg",
+                "",
+                "/storage/emulated/0/Download/a.pdf",
+            )
+        )
+    }
+
+    @Test
+    fun unicode() {
+        assertRoundTrip(
+            listOf(
+                "/storage/emulated/0/Pictures/照片/截图.png",
+                "/storage/emulated/0/Pictures/照片/截屏.png",
+                // Both differ in the low surrogate of the same pair.
+                "/storage/emulated/0/Music/🎵.mp3",
+                "/storage/emulated/0/Music/🎶.mp3",
+            )
+        )
+    }
+
+    @Test
+    fun nulls() {
+        assertRoundTrip(listOf(null))
+        assertRoundTrip(listOf("image/jpeg", null, "image/jpeg", null, "video/mp4", null))
+    }
+
+    @Test
+    fun manyDistinctStrings() {
+        val paths = List(1000) { "/storage/emulated/0/file$it" }
+        assertRoundTrip(paths + paths)
+    }
+
+    @Test
+    fun encodedTags() {
+        // Version, size, new "a", new "b" after one shared char, null, then the string at index 0.
+        val blob = byteArrayOf(1, 4, 0, 1, 'a'.code.toByte(), 2, 1, 'b'.code.toByte(), 1, 3)
+        assertArrayEquals(blob, RecordCodec.encodeStrings(listOf("a", "ab", null, "a")))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsUnknownVersion() {
+        RecordCodec.decodeStrings(byteArrayOf(2, 0))
+    }
+
+    @Test
+    fun booleans() {
+        val list = List(77) { it % 3 == 0 }
+        assertEquals(list, RecordCodec.decodeBooleans(RecordCodec.encodeBooleans(list)))
+        val bytes = RecordCodec.encodeBooleans(List(16) { true })
+        assertArrayEquals(byteArrayOf(1, 16, -1, -1), bytes)
+    }
+
+    @Test
+    fun smallerThanJson() {
+        val data = List(500) { "/storage/emulated/0/DCIM/Camera/IMG_20240101_${100000 + it}.jpg" }
+        val mimeType = List(500) { if (it % 10 == 0) "video/mp4" else "image/jpeg" }
+        val gson = Gson()
+        val jsonSize = gson.toJson(data).toByteArray().size +
+                gson.toJson(mimeType).toByteArray().size
+        val codecSize = RecordCodec.encodeStrings(data).size +
+                RecordCodec.encodeStrings(mimeType).size
+        // About 35 KB of JSON against 4 KB.
+        val ratio = jsonSize.toDouble() / codecSize
+        assertTrue("codec $codecSize bytes, JSON $jsonSize bytes", ratio >= 8)
+    }
+}
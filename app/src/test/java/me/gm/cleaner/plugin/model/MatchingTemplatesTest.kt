@@ -0,0 +1,133 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.model
+
+import android.provider.MediaStore.Files.FileColumns
+import me.gm.cleaner.plugin.xposed.util.MimeUtils
+import org.junit.Assert.assertEquals
+import org.junit.Ignore
+import org.junit.Test
+import java.io.File
+
+/**
+ * Checks [MatchingTemplates] against the list-based matching it replaced. [benchmarkApplyTemplates]
+ * prints the cost of both over a synthetic result of [ROWS] rows and is only run by hand.
+ */
+class MatchingTemplatesTest {
+    private val mimeTypes = listOf(
+        "image/jpeg", "IMAGE/PNG", "video/mp4", "audio/mpeg", "audio/x-mpegurl", "text/vtt",
+        "application/pdf", "application/octet-stream", "application/x-custom", null,
+    )
+
+    private val templates = listOf(
+        Template(
+            "images only", listOf("query"), listOf("a"),
+            listOf(FileColumns.MEDIA_TYPE_IMAGE, FileColumns.MEDIA_TYPE_VIDEO),
+            listOf("/storage/emulated/0/Download", "/storage/emulated/0/Android/media/x")
+        ),
+        Template(
+            "no documents", listOf("query"), listOf("a"),
+            listOf(
+                FileColumns.MEDIA_TYPE_NONE, FileColumns.MEDIA_TYPE_IMAGE,
+                FileColumns.MEDIA_TYPE_AUDIO, FileColumns.MEDIA_TYPE_VIDEO,
+                FileColumns.MEDIA_TYPE_PLAYLIST, FileColumns.MEDIA_TYPE_SUBTITLE,
+            ),
+            listOf("/storage/emulated/0/Pictures/Private")
+        ),
+    )
+
+    private val dirs = listOf(
+        "/storage/emulated/0/DCIM/Camera", "/storage/emulated/0/Download",
+        "/storage/emulated/0/download/sub", "/storage/emulated/0/Pictures/Private",
+        "/storage/emulated/0/Pictures/PrivateNot", "/storage/emulated/0/Android/media/x/y",
+    )
+
+    private val data = List(ROWS) { "${dirs[it % dirs.size]}/file$it.bin" }
+    private val mimeTypeList = List(ROWS) { mimeTypes[it % mimeTypes.size] }
+
+    /** The matching before MIME types were cached and media types were tested by bitmask. */
+    private fun applyTemplatesBefore(
+        templates: List<Template>, dataList: List<String>, mimeTypeList: List<String?>
+    ): List<Boolean> = dataList.zip(mimeTypeList).map { (data, mimeType) ->
+        val mediaType = mimeType?.let { MimeUtils.resolveMediaType(it) }
+            ?: FileColumns.MEDIA_TYPE_NONE
+        templates.any { template ->
+            mediaType !in (template.permittedMediaTypes ?: emptyList())
+        } || templates.any { template -> template.filterPath?.any { contains(it, data) } == true }
+    }
+
+    private fun MatchingTemplates.applyTemplates(
+        dataList: List<String>, mimeTypeList: List<String?>
+    ): List<Boolean> = dataList.zip(mimeTypeList).map { (data, mimeType) ->
+        shouldIntercept(data, mimeType)
+    }
+
+    /** FileUtils.contains, which can't be loaded outside Android. */
+    private fun contains(parent: String, child: String): Boolean =
+        child.equals(parent, true) || parent.equals(File.separator, true) ||
+                child.startsWith(parent + File.separator, true)
+
+    @Test
+    fun cachedMediaTypeMatchesUncached() {
+        val extra = listOf("Audio/MPEGURL", "text/plain", "application/vnd.ms-wpl")
+        (mimeTypes.filterNotNull() + extra).forEach {
+            // Twice, so that the second lookup is served from the cache.
+            repeat(2) { _ ->
+                assertEquals(
+                    it, MimeUtils.resolveMediaType(it), MimeUtils.resolveMediaTypeCached(it)
+                )
+            }
+        }
+        assertEquals(FileColumns.MEDIA_TYPE_NONE, MimeUtils.resolveMediaTypeCached(null))
+    }
+
+    @Test
+    fun matchesListBasedTemplates() {
+        val matchingTemplates = MatchingTemplates(templates)
+        assertEquals(
+            applyTemplatesBefore(templates, data, mimeTypeList),
+            matchingTemplates.applyTemplates(data, mimeTypeList)
+        )
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    fun benchmarkApplyTemplates() {
+        val matchingTemplates = MatchingTemplates(templates)
+        val before = measure { applyTemplatesBefore(templates, data, mimeTypeList) }
+        val after = measure { matchingTemplates.applyTemplates(data, mimeTypeList) }
+        println(
+            "applyTemplates over $ROWS rows: before %.1f ms, after %.1f ms"
+                .format(before / 1e6, after / 1e6)
+        )
+    }
+
+    /** Median of [RUNS] runs in nanos, after as many warm up runs. */
+    private inline fun measure(block: () -> Unit): Long {
+        repeat(RUNS) { block() }
+        return List(RUNS) {
+            val start = System.nanoTime()
+            block()
+            System.nanoTime() - start
+        }.sorted()[RUNS / 2]
+    }
+
+    companion object {
+        private const val ROWS = 100_000
+        private const val RUNS = 7
+    }
+}
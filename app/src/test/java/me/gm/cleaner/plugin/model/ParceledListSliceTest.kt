@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.model
+
+import android.app.Application
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageInfo
+import android.os.BadParcelableException
+import android.os.Binder
+import android.os.DeadObjectException
+import android.os.IBinder
+import android.os.Parcel
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Round-trips lists of [PackageInfo] through a [Parcel]. The binder written for the elements that
+ * don't fit inline is local, so the chunk transactions run in process: this covers the chunking
+ * protocol and its failure handling, not the cost of a binder round trip.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class, sdk = [34])
+class ParceledListSliceTest {
+
+    private fun packageInfos(count: Int): List<PackageInfo> = List(count) { i ->
+        val name = "com.example.package$i"
+        PackageInfo().apply {
+            packageName = name
+            versionName = "1.0.$i"
+            applicationInfo = ApplicationInfo().apply {
+                packageName = name
+                sourceDir = "/data/app/~~$i==/$name-1/base.apk"
+                dataDir = "/data/user/0/$name"
+            }
+            // Enlarge the elements so that the list spans several chunks.
+            requestedPermissions = Array(20) { "android.permission.EXAMPLE_PERMISSION_$it" }
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun read(parcel: Parcel): List<PackageInfo> {
+        parcel.setDataPosition(0)
+        return (ParceledListSlice.CREATOR.createFromParcel(parcel, javaClass.classLoader)
+                as ParceledListSlice<PackageInfo>).list
+    }
+
+    private fun roundTrip(list: List<PackageInfo>): List<PackageInfo> {
+        val parcel = Parcel.obtain()
+        try {
+            ParceledListSlice(list).writeToParcel(parcel, 0)
+            return read(parcel)
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+    /**
+     * A slice of [list] with nothing inline, whose retriever fails every chunk request larger than
+     * [maxSize] bytes the way a reply over the binder buffer does.
+     */
+    private fun sliceWithRetriever(list: List<PackageInfo>, maxSize: Int): Parcel {
+        val retriever = object : Binder() {
+            override fun onTransact(code: Int, data: Parcel, reply: Parcel?, flags: Int): Boolean {
+                val start = data.readInt()
+                val size = data.readInt()
+                if (size > maxSize) {
+                    throw DeadObjectException("Transaction failed")
+                }
+                reply!!.writeInt(list.size)
+                list.subList(start, list.size).forEach { it.writeToParcel(reply, 0) }
+                return true
+            }
+        }
+        return Parcel.obtain().apply {
+            writeInt(list.size)
+            writeString(PackageInfo::class.java.name)
+            writeInt(0)
+            writeStrongBinder(retriever)
+        }
+    }
+
+    @Test
+    fun roundTripsEveryElement() {
+        listOf(100, 500, 2000).forEach { size ->
+            val list = packageInfos(size)
+            assertEquals(list.map { it.packageName }, roundTrip(list).map { it.packageName })
+        }
+    }
+
+    @Test
+    fun shrinksChunksAfterFailedTransaction() {
+        val list = packageInfos(10)
+        val parcel = sliceWithRetriever(list, IBinder.getSuggestedMaxIpcSizeBytes())
+        try {
+            assertEquals(list.map { it.packageName }, read(parcel).map { it.packageName })
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+    @Test(expected = BadParcelableException::class)
+    fun throwsInsteadOfTruncating() {
+        val parcel = sliceWithRetriever(packageInfos(10), 0)
+        try {
+            read(parcel)
+        } finally {
+            parcel.recycle()
+        }
+    }
+}
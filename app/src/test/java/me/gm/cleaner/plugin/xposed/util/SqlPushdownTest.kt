@@ -0,0 +1,186 @@
+/*
+ * Copyright 2024 Green Mushroom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.gm.cleaner.plugin.xposed.util
+
+import android.app.Application
+import android.database.sqlite.SQLiteDatabase
+import android.provider.MediaStore.Files.FileColumns
+import me.gm.cleaner.plugin.model.MatchingTemplates
+import me.gm.cleaner.plugin.model.Template
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Checks that the where clause from [SqlPushdown] rejects the same rows as
+ * [MatchingTemplates.shouldIntercept]. [benchmarkPushdown] prints the cost of the first page and
+ * of a full scan of [ROWS] rows for the pushdown and for the row filter it replaces, and the bytes
+ * each hands to the client. It is only run by hand.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class, sdk = [34])
+class SqlPushdownTest {
+    private lateinit var database: SQLiteDatabase
+
+    private val filterPaths = listOf(
+        "/storage/emulated/0/Download", "/storage/emulated/0/My_Dir", "/storage/emulated/0/100%",
+        "/storage/emulated/0/Pictures/Private",
+    )
+
+    private val matchingTemplates = MatchingTemplates(
+        listOf(
+            Template(
+                "paths", listOf("query"), listOf("a"),
+                listOf(
+                    FileColumns.MEDIA_TYPE_NONE, FileColumns.MEDIA_TYPE_IMAGE,
+                    FileColumns.MEDIA_TYPE_AUDIO, FileColumns.MEDIA_TYPE_VIDEO,
+                    FileColumns.MEDIA_TYPE_PLAYLIST, FileColumns.MEDIA_TYPE_SUBTITLE,
+                    FileColumns.MEDIA_TYPE_DOCUMENT,
+                ),
+                filterPaths
+            )
+        )
+    )
+
+    /** Rejected and kept neighbours: case folding, LIKE wildcards and sibling prefixes. */
+    private val dirs = listOf(
+        "/storage/emulated/0/DCIM/Camera", "/storage/emulated/0/Download",
+        "/storage/emulated/0/download/sub", "/storage/emulated/0/Downloads",
+        "/storage/emulated/0/My_Dir", "/storage/emulated/0/MyXDir", "/storage/emulated/0/my_dir/a",
+        "/storage/emulated/0/100%", "/storage/emulated/0/100%x", "/storage/emulated/0/1000",
+        "/storage/emulated/0/Pictures/Private", "/storage/emulated/0/Pictures/PrivateNot",
+    )
+
+    @Before
+    fun setUp() {
+        database = SQLiteDatabase.create(null)
+        database.execSQL(
+            "CREATE TABLE files (_id INTEGER PRIMARY KEY, _data TEXT, mime_type TEXT)"
+        )
+        database.beginTransaction()
+        try {
+            val insert = database.compileStatement("INSERT INTO files VALUES (?, ?, ?)")
+            for (i in 0 until ROWS) {
+                insert.bindLong(1, i.toLong())
+                insert.bindString(2, "${dirs[i % dirs.size]}/IMG_$i.jpg")
+                insert.bindString(3, "image/jpeg")
+                insert.executeInsert()
+            }
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+        }
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    private fun where(): String =
+        SqlPushdown.excludePaths(FileColumns.DATA, filterPaths)!!.joinToString(" AND ")
+
+    /** Ids of the rows the pushdown keeps, at most [limit] of them. */
+    private fun queryPushdown(limit: Int): List<Long> =
+        database.rawQuery("SELECT _id FROM files WHERE ${where()} LIMIT $limit", null).use { c ->
+            List(c.count) {
+                c.moveToNext()
+                c.getLong(0)
+            }
+        }
+
+    /** Ids of the rows the row filter keeps, at most [limit] of them. */
+    private fun queryRowFilter(limit: Int): List<Long> =
+        database.rawQuery("SELECT _id, _data, mime_type FROM files", null).use { c ->
+            val ids = mutableListOf<Long>()
+            while (ids.size < limit && c.moveToNext()) {
+                if (!matchingTemplates.shouldIntercept(c.getString(1), c.getString(2))) {
+                    ids += c.getLong(0)
+                }
+            }
+            ids
+        }
+
+    @Test
+    fun matchesRowFilter() {
+        assertEquals(queryRowFilter(ROWS), queryPushdown(ROWS))
+    }
+
+    @Test
+    fun rootRejectsEverything() {
+        assertEquals(listOf("0"), SqlPushdown.excludePaths(FileColumns.DATA, listOf("/")))
+    }
+
+    @Test
+    fun nonAsciiIsNotPushedDown() {
+        assertNull(SqlPushdown.excludePaths(FileColumns.DATA, listOf("/storage/emulated/0/Ä")))
+    }
+
+    /** Bytes of the rows a query hands to the client, as they would fill its cursor windows. */
+    private fun bytesToClient(where: String): Long =
+        database.rawQuery("SELECT _id, _data, mime_type FROM files $where", null).use { c ->
+            var bytes = 0L
+            while (c.moveToNext()) {
+                bytes += Long.SIZE_BYTES + c.getString(1).toByteArray().size +
+                        c.getString(2).toByteArray().size
+            }
+            bytes
+        }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    fun benchmarkPushdown() {
+        val firstPagePushdown = measure { queryPushdown(PAGE_SIZE) }
+        val firstPageRowFilter = measure { queryRowFilter(PAGE_SIZE) }
+        val fullPushdown = measure { queryPushdown(ROWS) }
+        val fullRowFilter = measure { queryRowFilter(ROWS) }
+        println(
+            "First $PAGE_SIZE rows: pushdown %.2f ms, row filter %.2f ms"
+                .format(firstPagePushdown / 1e6, firstPageRowFilter / 1e6)
+        )
+        println(
+            "All $ROWS rows: pushdown %.1f ms, row filter %.1f ms"
+                .format(fullPushdown / 1e6, fullRowFilter / 1e6)
+        )
+        println(
+            "Bytes handed to the client: pushdown ${bytesToClient("WHERE ${where()}")}, " +
+                    "row filter ${bytesToClient("")}"
+        )
+    }
+
+    /** Median of [RUNS] runs in nanos, after as many warm up runs. */
+    private inline fun measure(block: () -> Unit): Long {
+        repeat(RUNS) { block() }
+        return List(RUNS) {
+            val start = System.nanoTime()
+            block()
+            System.nanoTime() - start
+        }.sorted()[RUNS / 2]
+    }
+
+    companion object {
+        private const val ROWS = 100_000
+        private const val PAGE_SIZE = 50
+        private const val RUNS = 5
+    }
+}